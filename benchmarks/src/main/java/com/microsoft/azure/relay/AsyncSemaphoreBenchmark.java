@@ -0,0 +1,69 @@
+package com.microsoft.azure.relay;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Acquire/release throughput of AsyncSemaphore, which serializes sends on the control connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncSemaphoreBenchmark {
+	@Param({ "1", "4" })
+	public int permits;
+	private ScheduledExecutorService executor;
+	private AsyncSemaphore semaphore;
+
+	@Setup
+	public void setup() {
+		this.executor = Executors.newSingleThreadScheduledExecutor();
+		this.semaphore = new AsyncSemaphore(this.permits, this.executor);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.executor.shutdown();
+	}
+
+	@Benchmark
+	public void acquireRelease() {
+		this.semaphore.acquireAsync().join().release();
+	}
+
+	/**
+	 * Waiters queue up whenever there are more threads than permits.
+	 */
+	@Benchmark
+	@Threads(4)
+	public void acquireReleaseContended() {
+		this.semaphore.acquireAsync().join().release();
+	}
+
+	/**
+	 * Every thread takes all the permits at once, so each acquire waits for the previous holder.
+	 */
+	@Benchmark
+	@Threads(4)
+	public void acquireAllReleaseContended() {
+		this.semaphore.acquireAsync(this.permits).join().release(this.permits);
+	}
+}
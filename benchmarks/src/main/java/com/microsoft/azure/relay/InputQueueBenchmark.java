@@ -0,0 +1,127 @@
+package com.microsoft.azure.relay;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Enqueue/dequeue throughput of the InputQueue which backs websocket reads, AsyncSemaphore and the accept queue,
+ * compared with the monitor based SynchronizedInputQueue it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputQueueBenchmark {
+	private static final Object ITEM = new Object();
+	private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+	@Param({ "lockFree", "synchronized" })
+	public String implementation;
+	private ScheduledExecutorService executor;
+	private Consumer<Object> enqueue;
+	private Supplier<CompletableFuture<Object>> dequeue;
+	private Supplier<CompletableFuture<Object>> timedDequeue;
+	private Runnable dispose;
+
+	@Setup
+	public void setup() {
+		this.executor = Executors.newSingleThreadScheduledExecutor();
+		if ("synchronized".equals(this.implementation)) {
+			SynchronizedInputQueue<Object> queue = new SynchronizedInputQueue<Object>(this.executor);
+			this.enqueue = queue::enqueueAndDispatch;
+			this.dequeue = queue::dequeueAsync;
+			this.timedDequeue = () -> queue.dequeueAsync(TIMEOUT);
+			this.dispose = queue::dispose;
+		} else {
+			InputQueue<Object> queue = new InputQueue<Object>(this.executor);
+			this.enqueue = queue::enqueueAndDispatch;
+			this.dequeue = queue::dequeueAsync;
+			this.timedDequeue = () -> queue.dequeueAsync(TIMEOUT);
+			this.dispose = queue::dispose;
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.dispose.run();
+		this.executor.shutdown();
+	}
+
+	/**
+	 * The item is buffered and then picked up by a reader, like fragments arriving ahead of reads.
+	 */
+	@Benchmark
+	public Object enqueueThenDequeue() {
+		this.enqueue.accept(ITEM);
+		return this.dequeue.get().join();
+	}
+
+	/**
+	 * The reader waits and is completed by the enqueue, like reads which are posted ahead of the fragments.
+	 */
+	@Benchmark
+	public Object dequeueThenEnqueue() {
+		CompletableFuture<Object> reader = this.dequeue.get();
+		this.enqueue.accept(ITEM);
+		return reader.join();
+	}
+
+	/**
+	 * Like dequeueThenEnqueue with a timeout on the read, which is how ClientWebSocket reads.
+	 */
+	@Benchmark
+	public Object timedDequeueThenEnqueue() {
+		CompletableFuture<Object> reader = this.timedDequeue.get();
+		this.enqueue.accept(ITEM);
+		return reader.join();
+	}
+
+	/**
+	 * Several threads enqueue and dequeue on the same queue. Each thread enqueues before it dequeues, so there is
+	 * always an item for every reader and no reader ever waits.
+	 */
+	@Benchmark
+	@Threads(4)
+	public Object enqueueThenDequeueContended() {
+		this.enqueue.accept(ITEM);
+		return this.dequeue.get().join();
+	}
+
+	/**
+	 * Several threads enqueue and dequeue on the same queue, half of them post their read before they enqueue so
+	 * readers and items keep meeting each other in both directions.
+	 */
+	@Benchmark
+	@Threads(8)
+	public Object mixedContended() {
+		if ((Thread.currentThread().getId() & 1) == 0) {
+			this.enqueue.accept(ITEM);
+			return this.dequeue.get().join();
+		}
+
+		CompletableFuture<Object> reader = this.dequeue.get();
+		this.enqueue.accept(ITEM);
+		return reader.join();
+	}
+}
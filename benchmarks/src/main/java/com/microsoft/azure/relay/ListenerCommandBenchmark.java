@@ -0,0 +1,68 @@
+package com.microsoft.azure.relay;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of the commands a listener receives on its control connection and serialization of the response command.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerCommandBenchmark {
+	private static final String ACCEPT_COMMAND = "{\"accept\":{"
+		+ "\"address\":\"wss://contoso.servicebus.windows.net/$hc/hc1?sb-hc-action=accept&sb-hc-id=4cb542c3-047a-4d40-a19f-bdc66441e736_G1\","
+		+ "\"id\":\"4cb542c3-047a-4d40-a19f-bdc66441e736_G1\","
+		+ "\"connectHeaders\":{\"Host\":\"contoso.servicebus.windows.net\",\"Sec-WebSocket-Key\":\"oBz9gSGPdlh4bgGR/O1eHw==\","
+		+ "\"Sec-WebSocket-Version\":\"13\",\"Upgrade\":\"websocket\",\"Connection\":\"Upgrade\"},"
+		+ "\"remoteEndpoint\":{\"address\":\"10.1.2.3\",\"port\":54321}}}";
+	private static final String REQUEST_COMMAND = "{\"request\":{"
+		+ "\"address\":\"wss://contoso.servicebus.windows.net/$hc/hc1?sb-hc-action=request&sb-hc-id=8ec2bc9c-9a14-4cd0-96d8-9fd0b0d5f7c3_G1\","
+		+ "\"id\":\"8ec2bc9c-9a14-4cd0-96d8-9fd0b0d5f7c3_G1\","
+		+ "\"requestTarget\":\"/hc1/api/values?id=42\",\"method\":\"POST\","
+		+ "\"remoteEndpoint\":{\"address\":\"10.1.2.3\",\"port\":54321},"
+		+ "\"requestHeaders\":{\"Host\":\"contoso.servicebus.windows.net\",\"Content-Type\":\"application/json\","
+		+ "\"Content-Length\":\"256\",\"Accept\":\"*/*\",\"User-Agent\":\"benchmark\"},"
+		+ "\"body\":true}}";
+	private ListenerCommand.ResponseCommand responseCommand;
+
+	@Setup
+	public void setup() {
+		this.responseCommand = new ListenerCommand(null).new ResponseCommand();
+		this.responseCommand.setRequestId("8ec2bc9c-9a14-4cd0-96d8-9fd0b0d5f7c3_G1");
+		this.responseCommand.setStatusCode(200);
+		this.responseCommand.setStatusDescription("OK");
+		this.responseCommand.setBody(true);
+		this.responseCommand.getResponseHeaders().put("Content-Type", "application/json");
+		this.responseCommand.getResponseHeaders().put("Cache-Control", "no-cache");
+	}
+
+	@Benchmark
+	public ListenerCommand parseAccept() {
+		return new ListenerCommand(new JSONObject(ACCEPT_COMMAND));
+	}
+
+	@Benchmark
+	public ListenerCommand parseRequest() {
+		return new ListenerCommand(new JSONObject(REQUEST_COMMAND));
+	}
+
+	@Benchmark
+	public String responseToJsonString() {
+		return this.responseCommand.toJsonString();
+	}
+}
@@ -0,0 +1,51 @@
+package com.microsoft.azure.relay;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Locale;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.microsoft.azure.relay.SharedAccessSignatureTokenProvider.SharedAccessSignatureToken;
+
+/**
+ * The signing as it was before the SharedAccessSignatureBuilder: a new Mac keyed on every call and the token put
+ * together with String.format. Kept here as the baseline of SharedAccessSignatureBenchmark.
+ */
+final class PerCallSharedAccessSignatureBuilder {
+	private static final String UTF8_ENCODING_NAME = StringUtil.UTF8.name();
+	private final String keyName;
+	private final byte[] key;
+
+	public PerCallSharedAccessSignatureBuilder(String keyName, byte[] key) {
+		this.keyName = keyName;
+		this.key = key;
+	}
+
+	public String buildSignature(String resource, Duration validFor)
+		throws UnsupportedEncodingException, InvalidKeyException, NoSuchAlgorithmException {
+		String expiresOn = String.valueOf(Instant.now().getEpochSecond() + validFor.getSeconds());
+		String audienceUri = URLEncoder.encode(resource, UTF8_ENCODING_NAME);
+		String signature = sign(String.join("\n", new String[] { audienceUri, expiresOn }), this.key);
+
+		return String.format(Locale.ROOT, "%s %s=%s&%s=%s&%s=%s&%s=%s",
+			SharedAccessSignatureToken.SHARED_ACCESS_SIGNATURE,
+			SharedAccessSignatureToken.SIGNED_RESOURCE, audienceUri,
+			SharedAccessSignatureToken.SIGNATURE, URLEncoder.encode(signature, UTF8_ENCODING_NAME),
+			SharedAccessSignatureToken.SIGNED_EXPIRY, URLEncoder.encode(expiresOn, UTF8_ENCODING_NAME),
+			SharedAccessSignatureToken.SIGNATURE_KEYNAME, URLEncoder.encode(this.keyName, UTF8_ENCODING_NAME));
+	}
+
+	private static String sign(String message, byte[] key) throws NoSuchAlgorithmException, InvalidKeyException {
+		Mac hmac = Mac.getInstance(SharedAccessSignatureTokenProvider.SharedAccessSignatureBuilder.HMAC_ALGORITHM);
+		hmac.init(new SecretKeySpec(key, hmac.getAlgorithm()));
+		byte[] signature = hmac.doFinal(message.getBytes(StringUtil.UTF8));
+		return Base64.getEncoder().encodeToString(signature);
+	}
+}
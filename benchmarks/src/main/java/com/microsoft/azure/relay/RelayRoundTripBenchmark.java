@@ -0,0 +1,139 @@
+package com.microsoft.azure.relay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end round trips through the local relay stand-in: websocket messages echoed by the listener through
+ * ClientWebSocket, and HTTP requests answered by the listener through HybridHttpConnection. Payloads above 64KB
+ * take the rendezvous path for HTTP.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Operation timeouts which are still pending keep the relay executor threads alive for a while after the trial,
+// don't let the fork wait for them once the results are in
+@Fork(value = 1, jvmArgsAppend = "-Djmh.shutdownTimeout=0")
+public class RelayRoundTripBenchmark {
+	private static final String ENTITY_PATH = "benchmark";
+	private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+	@Param({ "1024", "262144" })
+	public int payloadSize;
+	private LocalRelayServer relay;
+	private HybridConnectionListener listener;
+	private HybridConnectionChannel channel;
+	private URL httpUrl;
+	private byte[] payload;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		this.payload = new byte[this.payloadSize];
+		for (int i = 0; i < this.payload.length; i++) {
+			this.payload[i] = (byte) i;
+		}
+
+		TokenProvider tokenProvider = TokenProvider.createSharedAccessSignatureTokenProvider("keyName", "key");
+		this.relay = new LocalRelayServer().start();
+		this.listener = new HybridConnectionListener(this.relay.getAddress(ENTITY_PATH), tokenProvider);
+		this.listener.setEndpointOverride(this.relay.getEndpoint());
+		this.listener.setRequestHandler(context -> echo(context));
+		this.listener.openAsync(TIMEOUT).join();
+		this.acceptLoop();
+
+		HybridConnectionClient client = new HybridConnectionClient(this.relay.getAddress(ENTITY_PATH), tokenProvider);
+		client.setEndpointOverride(this.relay.getEndpoint());
+		this.channel = client.createConnectionAsync().join();
+		this.httpUrl = this.relay.getHttpUri(ENTITY_PATH).resolve(ENTITY_PATH + "/echo").toURL();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		this.channel.closeAsync().join();
+		this.listener.close();
+		this.relay.close();
+	}
+
+	@Benchmark
+	public ByteBuffer websocketRoundTrip() {
+		this.channel.writeAsync(ByteBuffer.wrap(this.payload), TIMEOUT).join();
+		return this.channel.readAsync(TIMEOUT).join();
+	}
+
+	@Benchmark
+	public byte[] httpRoundTrip() throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) this.httpUrl.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(this.payload);
+		}
+		try (InputStream in = connection.getInputStream()) {
+			return readAll(in);
+		}
+	}
+
+	private void acceptLoop() {
+		this.listener.acceptConnectionAsync().thenAccept(channel -> {
+			if (channel != null) {
+				echo(channel);
+				this.acceptLoop();
+			}
+		});
+	}
+
+	private static void echo(HybridConnectionChannel channel) {
+		channel.readAsync().thenCompose(message -> channel.writeAsync(message)).whenComplete(($void, ex) -> {
+			if (ex == null && channel.isOpen()) {
+				echo(channel);
+			}
+		});
+	}
+
+	private static void echo(RelayedHttpListenerContext context) {
+		RelayedHttpListenerResponse response = context.getResponse();
+		try {
+			byte[] body = readAll(context.getRequest().getInputStream());
+			response.getOutputStream().write(body);
+		} catch (IOException e) {
+			response.setStatusCode(500);
+		} finally {
+			response.close();
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if (in != null) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		}
+		return out.toByteArray();
+	}
+}
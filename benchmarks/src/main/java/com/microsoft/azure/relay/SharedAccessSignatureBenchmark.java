@@ -0,0 +1,57 @@
+package com.microsoft.azure.relay;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of signing a shared access signature, compared with the PerCallSharedAccessSignatureBuilder which keyed
+ * a new Mac for every signature, and of getting a token from the TokenProvider cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SharedAccessSignatureBenchmark {
+	private static final String KEY_NAME = "RootManageSharedAccessKey";
+	private static final String KEY = "3QzqAVLmbsvN7TT62cnSJjJ+Kf6Tq9AELSuMrWtmxHk=";
+	private static final String RESOURCE = "http://contoso.servicebus.windows.net/hc1";
+	private static final Duration VALID_FOR = Duration.ofHours(1);
+	private SharedAccessSignatureTokenProvider.SharedAccessSignatureBuilder signatureBuilder;
+	private PerCallSharedAccessSignatureBuilder perCallSignatureBuilder;
+	private TokenProvider tokenProvider;
+
+	@Setup
+	public void setup() {
+		this.signatureBuilder = new SharedAccessSignatureTokenProvider.SharedAccessSignatureBuilder(KEY_NAME, KEY.getBytes(StringUtil.UTF8));
+		this.perCallSignatureBuilder = new PerCallSharedAccessSignatureBuilder(KEY_NAME, KEY.getBytes(StringUtil.UTF8));
+		this.tokenProvider = TokenProvider.createSharedAccessSignatureTokenProvider(KEY_NAME, KEY);
+	}
+
+	@Benchmark
+	public String buildSignature() throws Exception {
+		return this.signatureBuilder.buildSignature(RESOURCE, VALID_FOR);
+	}
+
+	@Benchmark
+	public String buildSignaturePerCall() throws Exception {
+		return this.perCallSignatureBuilder.buildSignature(RESOURCE, VALID_FOR);
+	}
+
+	@Benchmark
+	public SecurityToken getCachedToken() {
+		return this.tokenProvider.getTokenAsync(RESOURCE, VALID_FOR).join();
+	}
+}
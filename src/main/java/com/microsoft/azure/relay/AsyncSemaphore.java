@@ -2,18 +2,33 @@ package com.microsoft.azure.relay;
 
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
+/**
+ * A semaphore for asynchronous callers. Callers which cannot get their permits right away wait in FIFO order and
+ * each is granted all of its permits at once, so a large request is never starved by smaller ones behind it and
+ * no permits are held by a caller which is still waiting.
+ */
 class AsyncSemaphore {
+	private static final ThreadLocal<Boolean> GRANTING = new ThreadLocal<Boolean>();
 	private final Object thisLock = new Object();
 	private final ScheduledExecutorService executor;
 	private final int limit;
-	private InputQueue<Boolean> waiterQueue;
 	private int permits;
+	// The waiters link to each other so that one which times out is taken out of the middle in O(1)
+	private Waiter head;
+	private Waiter tail;
+	private int queueLength;
+	private int maxQueueLength;
+	private long waitCount;
+	private long totalWaitNanos;
+	private long maxWaitNanos;
 	
 	public AsyncSemaphore(int permits, ScheduledExecutorService executor) {
 		this.limit = permits;
@@ -36,6 +51,51 @@ class AsyncSemaphore {
 		}
 	}
 
+	/**
+	 * @return The number of callers currently waiting for permits.
+	 */
+	int getQueueLength() {
+		synchronized (thisLock) {
+			return this.queueLength;
+		}
+	}
+
+	/**
+	 * @return The largest number of callers which were waiting for permits at the same time.
+	 */
+	int getMaxQueueLength() {
+		synchronized (thisLock) {
+			return this.maxQueueLength;
+		}
+	}
+
+	/**
+	 * @return The number of acquires which had to wait before they were granted.
+	 */
+	long getWaitCount() {
+		synchronized (thisLock) {
+			return this.waitCount;
+		}
+	}
+
+	/**
+	 * @return The time spent waiting by all the acquires which had to wait before they were granted.
+	 */
+	Duration getTotalWaitTime() {
+		synchronized (thisLock) {
+			return Duration.ofNanos(this.totalWaitNanos);
+		}
+	}
+
+	/**
+	 * @return The longest time an acquire waited before it was granted.
+	 */
+	Duration getMaxWaitTime() {
+		synchronized (thisLock) {
+			return Duration.ofNanos(this.maxWaitNanos);
+		}
+	}
+
 	public CompletableFuture<LockRelease> acquireAsync() {
 		return acquireAsync(1, null);
 	}
@@ -49,50 +109,48 @@ class AsyncSemaphore {
 	}
 	
 	public CompletableFuture<LockRelease> acquireAsync(int count, Duration timeout) {
-		CompletableFuture<?>[] releases;
+		return acquireAsync(count, timeout, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Acquires one permit like acquireAsync, unless it would have to wait behind maxQueueLength other callers.
+	 * 
+	 * @return The future which completes once the permit is granted, or null if too many callers are waiting already.
+	 */
+	CompletableFuture<LockRelease> tryAcquireAsync(Duration timeout, int maxQueueLength) {
+		return acquireAsync(1, timeout, maxQueueLength);
+	}
+
+	private CompletableFuture<LockRelease> acquireAsync(int count, Duration timeout, int maxQueueLength) {
 		if (count > limit) {
 			return CompletableFutureUtil.fromException(
 				new IllegalArgumentException("Cannot acquire more than its capacity."));
 		}
 		
+		Waiter waiter;
 		synchronized(thisLock) {
-			int acquired = Math.min(this.availablePermits(), count);
-			
-			this.permits -= acquired;
-			if (acquired == count) {
+			// Only take the permits ahead of waiters which came first if there are none
+			if (this.head == null && this.permits >= count) {
+				this.permits -= count;
 				return CompletableFuture.completedFuture(new LockRelease(count));
 			}
-			
-			// If we made it here the lock is not available yet
-			if (this.waiterQueue == null) {
-				this.waiterQueue = new InputQueue<Boolean>(executor);
+			if (this.queueLength >= maxQueueLength) {
+				return null;
 			}
 
-			releases = new CompletableFuture<?>[count];
-			for (int i = 0; i < count; i++) {
-				releases[i] = (i < acquired) ? CompletableFuture.completedFuture(true) 
-					: this.waiterQueue.dequeueAsync(timeout);
-			}
+			waiter = new Waiter(count);
+			this.enqueue(waiter);
 		}
 		
-		return CompletableFuture.allOf(releases).handle((nullResult, ex) -> {
-			// Could not complete successfully, give back the ones that we did get
-			if (ex != null) {
-				for (CompletableFuture<?> release : releases) {
-					synchronized (thisLock) {
-						if (!release.isCompletedExceptionally()) {
-							this.waiterQueue.enqueueAndDispatch(true, null, false);
-						}						
-					}
-				}
-				throw new CompletionException(ex.getCause());
-			} else {
-				synchronized (this.thisLock) {
-					this.permits -= count;
-				}
-				return new LockRelease(count);
+		if (timeout != null) {
+			waiter.timeoutTask = executor.schedule(() -> this.onTimeout(waiter), timeout.toMillis(), TimeUnit.MILLISECONDS);
+
+			// The permits may have been granted before the timer was set
+			if (!waiter.queued) {
+				waiter.timeoutTask.cancel(false);
 			}
-		});
+		}
+		return waiter.future;
 	}
 	
 	/**
@@ -141,15 +199,139 @@ class AsyncSemaphore {
 	}
 	
 	private void release(int count) {
+		Waiter granted;
 		synchronized (this.thisLock) {
 			this.permits += count;
+			granted = this.dequeueGranted();
+		}
 
-			// If there's a waiter we signal them now
-			if (this.waiterQueue != null) {
-				for (int i = 0; i < count && this.waiterQueue.getReadersQueueCount() > 0; i++) {
-					this.waiterQueue.enqueueAndDispatch(true, null, /* canDispatchOnThisThread */ false);
+		this.complete(granted);
+	}
+
+	private void onTimeout(Waiter waiter) {
+		Waiter granted;
+		synchronized (this.thisLock) {
+			if (!waiter.queued) {
+				return;
+			}
+
+			// The waiter may have been what held up the smaller ones behind it
+			this.unlink(waiter);
+			granted = this.dequeueGranted();
+		}
+
+		waiter.future.completeExceptionally(new TimeoutException("Could not acquire the semaphore within the timeout."));
+		this.complete(granted);
+	}
+
+	private void enqueue(Waiter waiter) {
+		waiter.enqueueTime = System.nanoTime();
+		waiter.queued = true;
+		waiter.previous = this.tail;
+		if (this.tail == null) {
+			this.head = waiter;
+		} else {
+			this.tail.next = waiter;
+		}
+		this.tail = waiter;
+		this.queueLength++;
+		this.maxQueueLength = Math.max(this.maxQueueLength, this.queueLength);
+	}
+
+	private void unlink(Waiter waiter) {
+		if (waiter.previous == null) {
+			this.head = waiter.next;
+		} else {
+			waiter.previous.next = waiter.next;
+		}
+		if (waiter.next == null) {
+			this.tail = waiter.previous;
+		} else {
+			waiter.next.previous = waiter.previous;
+		}
+		waiter.previous = null;
+		waiter.next = null;
+		waiter.queued = false;
+		this.queueLength--;
+	}
+
+	// Takes the waiters off the front of the queue for as long as the permits cover them, chained through nextGranted
+	private Waiter dequeueGranted() {
+		Waiter first = null;
+		Waiter last = null;
+		long now = System.nanoTime();
+
+		while (this.head != null && this.head.count <= this.permits) {
+			Waiter waiter = this.head;
+			this.permits -= waiter.count;
+			this.unlink(waiter);
+
+			long waitNanos = now - waiter.enqueueTime;
+			this.waitCount++;
+			this.totalWaitNanos += waitNanos;
+			this.maxWaitNanos = Math.max(this.maxWaitNanos, waitNanos);
+
+			if (first == null) {
+				first = waiter;
+			} else {
+				last.nextGranted = waiter;
+			}
+			last = waiter;
+		}
+		return first;
+	}
+
+	private void complete(Waiter granted) {
+		if (granted == null) {
+			return;
+		}
+
+		// The continuations of a granted waiter run on this thread, unless they release permits themselves, in which
+		// case the waiters they grant go to the executor instead of piling up on the stack
+		boolean nested = GRANTING.get() != null;
+		if (!nested) {
+			GRANTING.set(Boolean.TRUE);
+		}
+
+		try {
+			for (Waiter waiter = granted; waiter != null; waiter = waiter.nextGranted) {
+				if (waiter.timeoutTask != null) {
+					waiter.timeoutTask.cancel(false);
+				}
+
+				if (nested) {
+					executor.submit(waiter::grant);
+				} else {
+					waiter.grant();
 				}
 			}
+		} finally {
+			if (!nested) {
+				GRANTING.remove();
+			}
+		}
+	}
+
+	private final class Waiter {
+		private final CompletableFuture<LockRelease> future = new CompletableFuture<LockRelease>();
+		private final int count;
+		private volatile ScheduledFuture<?> timeoutTask;
+		private Waiter previous;
+		private Waiter next;
+		private Waiter nextGranted;
+		private volatile boolean queued;
+		private long enqueueTime;
+
+		Waiter(int count) {
+			this.count = count;
+		}
+
+		void grant() {
+			LockRelease lockRelease = new LockRelease(this.count);
+			if (!this.future.complete(lockRelease)) {
+				// The caller gave up on the future, don't lose its permits
+				lockRelease.release(this.count);
+			}
 		}
 	}
 
@@ -172,9 +354,11 @@ class AsyncSemaphore {
 					throw new IllegalArgumentException("Cannot release more than owned.");
 				}
 
-				AsyncSemaphore.this.release(count);
 				this.remaining -= count;
 			}
+
+			// Granting the permits to the next waiter may run its continuations
+			AsyncSemaphore.this.release(count);
 		}
 	}
 }
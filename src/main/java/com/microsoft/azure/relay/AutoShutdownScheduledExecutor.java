@@ -1,31 +1,52 @@
 package com.microsoft.azure.relay;
 
+import java.time.Duration;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Delayed;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The executor used by listeners and clients which were not given one. The thread pool is created once and kept
+ * for the lifetime of the executor, but its threads go away after they have been idle for the keep alive time,
+ * so that an idle process doesn't hold on to them and can exit.
+ */
 public class AutoShutdownScheduledExecutor implements ScheduledExecutorService {
 	//public static final AutoShutdownScheduledExecutor EXECUTOR = Create();
-	static final ThreadFactory THREAD_FACTORY = new CustomThreadFactory("autoshutdown");
-	private final Object thisLock = new Object();
+	static final ThreadFactory THREAD_FACTORY = new CustomThreadFactory("autoshutdown", true);
+	private static final ThreadLocal<Boolean> EXECUTOR_THREAD = ThreadLocal.withInitial(() -> false);
+	static final Duration DEFAULT_KEEP_ALIVE = Duration.ofSeconds(10);
 	private final int corePoolSize;
-	private int refCount = 0;
-	private ScheduledThreadPoolExecutor innerExecutor;
+	private final ScheduledThreadPoolExecutor innerExecutor;
+	private final LongAdder startedTasks = new LongAdder();
+	private final LongAdder totalTaskLatencyNanos = new LongAdder();
+	private final AtomicLong maxTaskLatencyNanos = new AtomicLong();
 
 	AutoShutdownScheduledExecutor(int size) {
+		this(size, DEFAULT_KEEP_ALIVE);
+	}
+
+	AutoShutdownScheduledExecutor(int size, Duration keepAlive) {
 		corePoolSize = size;
+		innerExecutor = new ScheduledThreadPoolExecutor(corePoolSize, THREAD_FACTORY);
+		innerExecutor.setKeepAliveTime(keepAlive.toMillis(), TimeUnit.MILLISECONDS);
+		innerExecutor.allowCoreThreadTimeOut(true);
+		innerExecutor.setRemoveOnCancelPolicy(true);
 	}
-	
+
 	public int getCorePoolSize() {
 		return this.corePoolSize;
 	}
@@ -33,91 +54,107 @@ public class AutoShutdownScheduledExecutor implements ScheduledExecutorService {
 	static AutoShutdownScheduledExecutor Create() {
 		return new AutoShutdownScheduledExecutor(Math.max(Runtime.getRuntime().availableProcessors(), 2));
 	}
-	
+
+	/**
+	 * Creates the executor for the handlers of listeners which were not given one. It starts a thread whenever 
+	 * all of its threads are busy, so that handlers which block never hold up each other or the I/O of this 
+	 * executor, and its threads go away after they have been idle for the keep alive time like the ones here.
+	 */
+	static ExecutorService createHandlerExecutor() {
+		return new ThreadPoolExecutor(0, Integer.MAX_VALUE, DEFAULT_KEEP_ALIVE.toMillis(), TimeUnit.MILLISECONDS,
+			new SynchronousQueue<Runnable>(), new CustomThreadFactory("relayhandler", false));
+	}
+
+	/**
+	 * @return True if the calling thread belongs to one of these executors, where waiting for the relay's own
+	 *         work may wait for a task which is queued behind the caller.
+	 */
+	static boolean isExecutorThread() {
+		return EXECUTOR_THREAD.get();
+	}
+
+	/**
+	 * @return The number of threads currently in the pool.
+	 */
+	int getPoolSize() {
+		return this.innerExecutor.getPoolSize();
+	}
+
+	/**
+	 * @return The number of tasks which are waiting to run, including the ones scheduled for later.
+	 */
+	int getQueueDepth() {
+		return this.innerExecutor.getQueue().size();
+	}
+
+	/**
+	 * @return The average time tasks waited for a thread, counted from their submission or, for scheduled tasks,
+	 *         from the time they were due.
+	 */
+	Duration getAverageTaskLatency() {
+		long started = this.startedTasks.sum();
+		return (started == 0) ? Duration.ZERO : Duration.ofNanos(this.totalTaskLatencyNanos.sum() / started);
+	}
+
+	/**
+	 * @return The longest time a task waited for a thread.
+	 */
+	Duration getMaxTaskLatency() {
+		return Duration.ofNanos(this.maxTaskLatencyNanos.get());
+	}
+
 	@Override
 	public <T> Future<T> submit(Callable<T> task) {
-		this.incrementRefCount();
-
-		Callable<T> callable = new Callable<T>() {
-			@Override
-			public T call() throws Exception {
-				try {
-					return task.call();
-				} finally {
-					AutoShutdownScheduledExecutor.this.decrementRefCount();
-				}
-			}
-		};
-
-		return innerExecutor.submit(callable);
+		long queued = System.nanoTime();
+		return innerExecutor.submit(() -> {
+			this.onTaskStarted(queued);
+			return task.call();
+		});
 	}
 
 	@Override
 	public Future<?> submit(Runnable task) {
-		this.incrementRefCount();
+		long queued = System.nanoTime();
 		return innerExecutor.submit(() -> {
-			try {
-				task.run();
-			} finally {
-				this.decrementRefCount();
-			}
+			this.onTaskStarted(queued);
+			task.run();
 		});
 	}
 
 	@Override
 	public <T> Future<T> submit(Runnable task, T result) {
-		this.incrementRefCount();
+		long queued = System.nanoTime();
 		return innerExecutor.submit(() -> {
-			try {
-				task.run();
-			} finally {
-				this.decrementRefCount();
-			}
+			this.onTaskStarted(queued);
+			task.run();
 		}, result);
 	}
 
 	@Override
 	public void execute(Runnable command) {
-		this.incrementRefCount();
+		long queued = System.nanoTime();
 		innerExecutor.execute(() -> {
-			try {
-				command.run();
-			} finally {
-				this.decrementRefCount();
-			}
+			this.onTaskStarted(queued);
+			command.run();
 		});
 	}
 
 	@Override
 	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
-		this.incrementRefCount();
-		Runnable wrapper = () -> {
-			try {
-				command.run();
-			} finally {
-				this.decrementRefCount();
-			}
-		};
-
-		return this.wrapFuture(innerExecutor.schedule(wrapper, delay, unit));
+		long due = System.nanoTime() + unit.toNanos(delay);
+		return innerExecutor.schedule(() -> {
+			this.onTaskStarted(due);
+			command.run();
+		}, delay, unit);
 	}
 
 	@Override
 	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
-		this.incrementRefCount();
-
-		Callable<V> wrapper = new Callable<V>() {
-			@Override
-			public V call() throws Exception {
-				try {
-					return callable.call();
-				} finally {
-					AutoShutdownScheduledExecutor.this.decrementRefCount();
-				}
-			}
-		};
-
-		return this.wrapFuture(innerExecutor.schedule(wrapper, delay, unit));
+		long due = System.nanoTime() + unit.toNanos(delay);
+		return innerExecutor.schedule(() -> {
+			this.onTaskStarted(due);
+			return callable.call();
+		}, delay, unit);
 	}
 
 	@Override
@@ -178,96 +215,34 @@ public class AutoShutdownScheduledExecutor implements ScheduledExecutorService {
 		throw new UnsupportedOperationException();
 	}
 
-	private void incrementRefCount() {
-		synchronized (this.thisLock) {
-			refCount++;
-			if (refCount == 1) {
-				innerExecutor = new ScheduledThreadPoolExecutor(corePoolSize, THREAD_FACTORY);
-			}
-		}
-	}
-
-	void decrementRefCount() {
-		ScheduledExecutorService executorToShutdown = null;
-		synchronized (this.thisLock) {
-			refCount--;
-			if (refCount == 0) {
-				executorToShutdown = innerExecutor;
-				innerExecutor = null;
-			}
-		}
+	private void onTaskStarted(long readyTime) {
+		long latency = Math.max(System.nanoTime() - readyTime, 0);
+		this.startedTasks.increment();
+		this.totalTaskLatencyNanos.add(latency);
 
-		if (executorToShutdown != null) {
-			executorToShutdown.shutdown();
-		}
-	}
-
-	private <T> ScheduledFuture<T> wrapFuture(ScheduledFuture<T> schedule) {
-		return new CancellableScheduledFuture<T>(schedule);
-	}
-
-	private class CancellableScheduledFuture<T> implements ScheduledFuture<T> {
-
-		private final ScheduledFuture<T> innerFuture;
-
-		public CancellableScheduledFuture(ScheduledFuture<T> innerFuture) {
-			this.innerFuture = innerFuture;
-		}
-
-		@Override
-		public long getDelay(TimeUnit unit) {
-			return this.innerFuture.getDelay(unit);
-		}
-
-		@Override
-		public int compareTo(Delayed o) {
-			return this.innerFuture.compareTo(o);
-		}
-
-		@Override
-		public boolean cancel(boolean mayInterruptIfRunning) {
-			boolean cancelResult = this.innerFuture.cancel(mayInterruptIfRunning);
-			if (cancelResult) {
-				AutoShutdownScheduledExecutor.this.decrementRefCount();
-			}
-
-			return cancelResult;
-		}
-
-		@Override
-		public T get() throws InterruptedException, ExecutionException {
-			return this.innerFuture.get();
-		}
-
-		@Override
-		public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-			return this.innerFuture.get(timeout, unit);
-		}
-
-		@Override
-		public boolean isCancelled() {
-			return this.innerFuture.isCancelled();
-		}
-
-		@Override
-		public boolean isDone() {
-			return this.innerFuture.isDone();
-		}
+		long max;
+		while (latency > (max = this.maxTaskLatencyNanos.get()) && !this.maxTaskLatencyNanos.compareAndSet(max, latency)) { }
 	}
 
 	private static class CustomThreadFactory implements ThreadFactory {
 
 		final String prefix;
+		final boolean executorThreads;
 		final ThreadFactory innerFactory;
-		
-		CustomThreadFactory(String prefix) {
+
+		CustomThreadFactory(String prefix, boolean executorThreads) {
 			this.prefix = prefix;
-			this.innerFactory = Executors.defaultThreadFactory(); 
+			this.executorThreads = executorThreads;
+			this.innerFactory = Executors.defaultThreadFactory();
 		}
-		
+
 		@Override
 		public Thread newThread(Runnable paramRunnable) {
-			Thread thread = this.innerFactory.newThread(paramRunnable);
+			Runnable runnable = !this.executorThreads ? paramRunnable : () -> {
+				EXECUTOR_THREAD.set(true);
+				paramRunnable.run();
+			};
+			Thread thread = this.innerFactory.newThread(runnable);
 			thread.setName(this.prefix + "-" + thread.getName());
 			return thread;
 		}
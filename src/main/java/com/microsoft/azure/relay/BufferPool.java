@@ -0,0 +1,147 @@
+package com.microsoft.azure.relay;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of byte buffers in size classes of powers of two from 1 KB to 1 MB, which the listeners given the same pool
+ * share for the buffers of their HTTP responses and websocket writes. Each size class keeps up to a given number of
+ * released buffers, further ones and larger buffers are left to the garbage collector.
+ */
+public final class BufferPool {
+	static final int MIN_SIZE_CLASS_SHIFT = 10;
+	static final int MAX_SIZE_CLASS_SHIFT = 20;
+	static final int DEFAULT_MAX_BUFFERS_PER_SIZE = 64;
+	private static final BufferPool SHARED = new BufferPool();
+	private final List<ArrayBlockingQueue<ByteBuffer>> sizeClasses;
+	private final int maxBuffersPerSize;
+	private final boolean direct;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Creates a pool of heap buffers which keeps up to 64 buffers of each size.
+	 */
+	public BufferPool() {
+		this(DEFAULT_MAX_BUFFERS_PER_SIZE, false);
+	}
+
+	/**
+	 * @param maxBuffersPerSize The number of released buffers to keep of each size, 0 to allocate every buffer anew
+	 * @param direct True to pool direct buffers, which the network and file I/O don't need to copy, false for heap buffers
+	 */
+	public BufferPool(int maxBuffersPerSize, boolean direct) {
+		if (maxBuffersPerSize < 0) {
+			throw RelayLogger.throwingException(new IllegalArgumentException("maxBuffersPerSize cannot be negative."), this);
+		}
+
+		this.maxBuffersPerSize = maxBuffersPerSize;
+		this.direct = direct;
+		this.sizeClasses = new ArrayList<ArrayBlockingQueue<ByteBuffer>>();
+		for (int shift = MIN_SIZE_CLASS_SHIFT; shift <= MAX_SIZE_CLASS_SHIFT && maxBuffersPerSize > 0; shift++) {
+			this.sizeClasses.add(new ArrayBlockingQueue<ByteBuffer>(maxBuffersPerSize));
+		}
+	}
+
+	/**
+	 * @return The pool listeners use unless they are given another one, a pool of heap buffers.
+	 */
+	public static BufferPool getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * @return True if the pool holds direct buffers, false for heap buffers.
+	 */
+	public boolean isDirect() {
+		return this.direct;
+	}
+
+	/**
+	 * @return The number of released buffers the pool keeps of each size.
+	 */
+	public int getMaxBuffersPerSize() {
+		return this.maxBuffersPerSize;
+	}
+
+	/**
+	 * @return The number of buffers which were handed out from the pool.
+	 */
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * @return The number of buffers which had to be allocated because the pool had none of the size.
+	 */
+	public long getMisses() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * @return The number of released buffers the pool currently keeps.
+	 */
+	public int getPooledBuffers() {
+		int count = 0;
+		for (ArrayBlockingQueue<ByteBuffer> sizeClass : this.sizeClasses) {
+			count += sizeClass.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Takes a buffer out of the pool, or allocates one if the pool has none of the size. The buffer may have a larger
+	 * capacity, but comes with its position at 0 and its limit at the requested size like a newly allocated buffer.
+	 *
+	 * @param size The number of bytes the buffer should hold
+	 * @return The buffer, which should be given back through release once it is no longer used
+	 */
+	ByteBuffer acquire(int size) {
+		ArrayBlockingQueue<ByteBuffer> sizeClass = this.getSizeClass(size);
+		ByteBuffer buffer = (sizeClass != null) ? sizeClass.poll() : null;
+		if (buffer != null) {
+			this.hits.increment();
+		} else {
+			this.misses.increment();
+			int capacity = (sizeClass != null) ? classCapacity(size) : size;
+			buffer = this.direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+		}
+
+		buffer.limit(size);
+		return buffer;
+	}
+
+	/**
+	 * Gives a buffer back to the pool. The caller must not use it anymore, and no write or send may still hold it.
+	 * Buffers which don't come from a pool like this one are ignored.
+	 *
+	 * @param buffer The buffer to release, which may be null
+	 */
+	void release(ByteBuffer buffer) {
+		if (buffer == null || buffer.isDirect() != this.direct || buffer.isReadOnly()) {
+			return;
+		}
+
+		int capacity = buffer.capacity();
+		ArrayBlockingQueue<ByteBuffer> sizeClass = this.getSizeClass(capacity);
+		if (sizeClass != null && classCapacity(capacity) == capacity) {
+			buffer.clear();
+			sizeClass.offer(buffer);
+		}
+	}
+
+	private ArrayBlockingQueue<ByteBuffer> getSizeClass(int size) {
+		if (this.sizeClasses.isEmpty() || size > (1 << MAX_SIZE_CLASS_SHIFT)) {
+			return null;
+		}
+		int shift = Math.max(32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1), MIN_SIZE_CLASS_SHIFT);
+		return this.sizeClasses.get(shift - MIN_SIZE_CLASS_SHIFT);
+	}
+
+	private static int classCapacity(int size) {
+		return Math.max(Integer.highestOneBit(Math.max(size - 1, 1)) << 1, 1 << MIN_SIZE_CLASS_SHIFT);
+	}
+}
@@ -3,21 +3,29 @@ package com.microsoft.azure.relay;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.time.Duration;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.io.IOException;
 
 import javax.websocket.*;
 
 import org.eclipse.jetty.io.RuntimeIOException;
-import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.websocket.api.SuspendToken;
 import org.eclipse.jetty.websocket.api.UpgradeException;
+import org.eclipse.jetty.websocket.common.WebSocketSession;
 
 class ClientWebSocket extends Endpoint implements RelayTraceSource {
-	private final AutoShutdownScheduledExecutor executor;
-	private final WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+	// Reading from the socket is suspended once either limit of received but unread fragments is reached,
+	// and resumed once the reader has drained the buffered fragments to half of both limits
+	static final long DEFAULT_MAX_BUFFERED_BYTES = 4 * RelayConstants.DEFAULT_CONNECTION_BUFFER_SIZE;
+	static final int DEFAULT_MAX_BUFFERED_FRAGMENTS = 1024;
+	private final ScheduledExecutorService executor;
 	private final TrackingContext trackingContext;
+	private final Object thisLock = new Object();
+	private WebSocketContainer container;
 	private Session session;
 	private int maxMessageBufferSize = RelayConstants.DEFAULT_CONNECTION_BUFFER_SIZE;
 	private CloseReason closeReason;
@@ -25,11 +33,19 @@ class ClientWebSocket extends Endpoint implements RelayTraceSource {
 	private InputQueue<String> textQueue;
 	private CompletableFuture<Void> closeTask;
 	private String cachedString;
+	private long maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+	private int maxBufferedFragments = DEFAULT_MAX_BUFFERED_FRAGMENTS;
+	private long bufferedBytes;
+	private int bufferedFragments;
+	private long readSuspendCount;
+	private SuspendToken suspendToken;
+	private boolean closing;
+	private volatile BufferPool bufferPool;
 
 	/**
 	 * Creates a websocket instance
 	 */
-	public ClientWebSocket(TrackingContext trackingContext, AutoShutdownScheduledExecutor executor) {
+	public ClientWebSocket(TrackingContext trackingContext, ScheduledExecutorService executor) {
 		this.executor = executor;
 		this.textQueue = new InputQueue<String>(this.executor);
 		this.fragmentQueue = new InputQueue<MessageFragment>(this.executor);
@@ -60,12 +76,86 @@ class ClientWebSocket extends Endpoint implements RelayTraceSource {
 	void setMaxMessageBufferSize(int maxMessageBufferSize) {
 		if (maxMessageBufferSize > 0) {
 			this.maxMessageBufferSize = maxMessageBufferSize;
-			this.container.setDefaultMaxTextMessageBufferSize(this.maxMessageBufferSize);
 		} else {
 			throw new IllegalArgumentException("MaxBufferSize of the web socket must be a positive value.");
 		}
 	}
 	
+	long getMaxBufferedBytes() {
+		synchronized (this.thisLock) {
+			return this.maxBufferedBytes;
+		}
+	}
+
+	void setMaxBufferedBytes(long maxBufferedBytes) {
+		if (maxBufferedBytes > 0) {
+			synchronized (this.thisLock) {
+				this.maxBufferedBytes = maxBufferedBytes;
+			}
+		} else {
+			throw new IllegalArgumentException("MaxBufferedBytes of the web socket must be a positive value.");
+		}
+	}
+
+	int getMaxBufferedFragments() {
+		synchronized (this.thisLock) {
+			return this.maxBufferedFragments;
+		}
+	}
+
+	void setMaxBufferedFragments(int maxBufferedFragments) {
+		if (maxBufferedFragments > 0) {
+			synchronized (this.thisLock) {
+				this.maxBufferedFragments = maxBufferedFragments;
+			}
+		} else {
+			throw new IllegalArgumentException("MaxBufferedFragments of the web socket must be a positive value.");
+		}
+	}
+	
+	/**
+	 * Sets the pool the copies of the data written with copyData are taken from, or null to allocate them.
+	 */
+	void setBufferPool(BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+	
+	/**
+	 * @return The number of received bytes which are waiting to be read.
+	 */
+	long getBufferedBytes() {
+		synchronized (this.thisLock) {
+			return this.bufferedBytes;
+		}
+	}
+	
+	/**
+	 * @return The number of received fragments which are waiting to be read.
+	 */
+	int getBufferedFragments() {
+		synchronized (this.thisLock) {
+			return this.bufferedFragments;
+		}
+	}
+	
+	/**
+	 * @return True if reading from the network is currently suspended because the reader fell behind.
+	 */
+	boolean isReadSuspended() {
+		synchronized (this.thisLock) {
+			return this.suspendToken != null;
+		}
+	}
+	
+	/**
+	 * @return The number of times reading from the network was suspended because the reader fell behind.
+	 */
+	long getReadSuspendCount() {
+		synchronized (this.thisLock) {
+			return this.readSuspendCount;
+		}
+	}
+	
 	/**
 	 * Establish websocket connection between the control websocket and the cloud
 	 * service if not already established.
@@ -110,15 +200,22 @@ class ClientWebSocket extends Endpoint implements RelayTraceSource {
 		if (this.isOpen()) {
 			return CompletableFutureUtil.fromException(new RuntimeIOException("This connection is already connected."));
 		}
-		this.container.setDefaultMaxTextMessageBufferSize(this.maxMessageBufferSize);
+
+		WebSocketContainer container;
+		synchronized (this.thisLock) {
+			if (this.container == null) {
+				this.container = SharedWebSocketContainer.acquire();
+			}
+			container = this.container;
+		}
 
 		return CompletableFutureUtil.timedRunAsync(timeout, () -> {
 			RelayLogger.logEvent("connecting", this);
 			try {
 				if (config != null) {
-					this.container.connectToServer(this, config, uri);
+					container.connectToServer(this, config, uri);
 				} else {
-					this.container.connectToServer(this, uri);
+					container.connectToServer(this, uri);
 				}
 			} catch (DeploymentException | IOException e) {
 				if (e.getCause() instanceof UpgradeException) {
@@ -184,6 +281,36 @@ class ClientWebSocket extends Endpoint implements RelayTraceSource {
 		return messageReader.readAsync();
 	}
 	
+	/**
+	 * Receives byte messages from the remote sender asynchronously as the list of fragments in which they arrived, 
+	 * without copying them into a single buffer.
+	 * 
+	 * @param timeout The timeout duration for this operation.
+	 * @return Returns a CompletableFuture of the fragments which completes when websocket receives the entire message.
+	 * @throws TimeoutException thrown when a complete message frame is not received within the timeout.
+	 */
+	public CompletableFuture<ByteBuffer[]> readBinaryBuffersAsync(Duration timeout) {
+		BinaryMessageReader messageReader = new BinaryMessageReader(timeout);
+		return messageReader.readBuffersAsync();
+	}
+	
+	/**
+	 * Receives the next fragment of a byte message from the remote sender asynchronously. Fragments are handed out 
+	 * as soon as they arrive, so a message does not need to fit in memory as a whole.
+	 * 
+	 * @param timeout The timeout duration for this operation.
+	 * @return Returns a CompletableFuture of the fragment, or null if the connection was closed.
+	 * @throws TimeoutException thrown when a fragment is not received within the timeout.
+	 */
+	public CompletableFuture<MessageFragment> readFragmentAsync(Duration timeout) {
+		return this.fragmentQueue.dequeueAsync(timeout).thenApply(fragment -> {
+			if (fragment != null) {
+				this.onFragmentDequeued(fragment);
+			}
+			return fragment;
+		});
+	}
+	
 	/**
 	 * Sends the data to the remote endpoint as binary.
 	 * 
@@ -217,6 +344,22 @@ class ClientWebSocket extends Endpoint implements RelayTraceSource {
 	 * @throws TimeoutException Throws when the sending task does not complete within the given timeout.
 	 */
 	CompletableFuture<Void> writeAsync(Object data, Duration timeout, boolean isEnd, WriteMode mode) {
+		return writeAsync(data, timeout, isEnd, mode, true);
+	}
+	
+	/**
+	 * Sends the data to the remote endpoint within a timeout in one of the WriteModes.
+	 * 
+	 * @param data Message to be sent.
+	 * @param timeout The timeout to connect to send the data within. May be null to indicate no timeout limit.
+	 * @param isEnd Indicates if the data sent is the end of a message
+	 * @param mode The type of the message to be sent.
+	 * @param copyData False if binary data may be handed to the transport as is. The transport masks the payload 
+	 * in place, so the caller gives up the content of the given buffer until the returned CompletableFuture completes.
+	 * @return A CompletableFuture which completes when websocket finishes sending the bytes.
+	 * @throws TimeoutException Throws when the sending task does not complete within the given timeout.
+	 */
+	CompletableFuture<Void> writeAsync(Object data, Duration timeout, boolean isEnd, WriteMode mode, boolean copyData) {
 		if (this.isOpen()) {
 			if (data == null) {
 				// TODO: Log warns sending nothing because message is null
@@ -224,6 +367,7 @@ class ClientWebSocket extends Endpoint implements RelayTraceSource {
 			}
 			else {
 				RemoteEndpoint.Basic remote = this.session.getBasicRemote();
+				BufferPool bufferPool = this.bufferPool;
 				RelayLogger.logEvent("writingBytes", this, mode.toString());
 				
 				// The websocket API will throw if multiple sends are attempted on the same websocket simultaneously
@@ -235,23 +379,34 @@ class ClientWebSocket extends Endpoint implements RelayTraceSource {
 							RelayLogger.logEvent("writingBytesFinished", this, String.valueOf(text.length()));
 						}
 						else {
-							byte[] bytes;
+							ByteBuffer source;
 							if (data instanceof byte[]) {
-								bytes = ((byte[]) data).clone();
+								source = ByteBuffer.wrap((byte[]) data);
 							} 
 							else if (data instanceof ByteBuffer) {
-								ByteBuffer buffer = (ByteBuffer) data;
-								bytes = new byte[buffer.remaining()];
-								buffer.get(bytes);
+								source = (ByteBuffer) data;
 							}
 							else {
 								throw new IllegalArgumentException(
 									"The data to be sent should be ByteBuffer or byte[], but received " + data.getClass().getSimpleName());
 							}
 							
-							int bytesToSend = bytes.length;
-							// sendBinary() will cause the content of the byte array within the ByteBuffer to change
-							remote.sendBinary(ByteBuffer.wrap(bytes), isEnd);
+							ByteBuffer buffer = source;
+							if (copyData) {
+								buffer = (bufferPool != null) ? bufferPool.acquire(source.remaining()) : ByteBuffer.allocate(source.remaining());
+								buffer.put(source).flip();
+							}
+							
+							int bytesToSend = buffer.remaining();
+							try {
+								// sendBinary() will cause the content of the given ByteBuffer to change
+								remote.sendBinary(buffer, isEnd);
+							} finally {
+								// The blocking send is done with the copy, whether it succeeded or not
+								if (copyData && bufferPool != null) {
+									bufferPool.release(buffer);
+								}
+							}
 							RelayLogger.logEvent("writingBytesFinished", this, String.valueOf(bytesToSend));
 						}
 					} catch (Exception e) {
@@ -288,6 +443,8 @@ class ClientWebSocket extends Endpoint implements RelayTraceSource {
 			return this.closeTask;
 		}
 
+		// The close handshake completes with the reply of the remote side, which a suspended read would never see
+		this.stopSuspendingReads();
 		try {
 			if (reason != null) {
 				this.session.close(reason);
@@ -302,14 +459,16 @@ class ClientWebSocket extends Endpoint implements RelayTraceSource {
 	}
 	
     /**
-     * Release the resources taken by this websocket. This is a very lengthy execution.
+     * Release the reference this websocket holds on the shared websocket container. Safe to call more than once.
      */
     void dispose() {
-        try {
-            ((LifeCycle) this.container).stop();
-        } catch (Exception e) {
-            RelayLogger.handledExceptionAsWarning(e, this);
+        synchronized (this.thisLock) {
+            if (this.container == null) {
+                return;
+            }
+            this.container = null;
         }
+        SharedWebSocketContainer.release();
     }
     
 	@OnOpen
@@ -331,16 +490,66 @@ class ClientWebSocket extends Endpoint implements RelayTraceSource {
 		session.addMessageHandler(new MessageHandler.Partial<byte[]>() {
 			@Override
 			public void onMessage(byte[] inputBytes, boolean isEnd) {
-				fragmentQueue.enqueueAndDispatch(new MessageFragment(inputBytes, isEnd));
+				onFragmentReceived(new MessageFragment(inputBytes, isEnd));
 			}
 		});
 	}
 	
+	void onFragmentReceived(MessageFragment fragment) {
+		synchronized (this.thisLock) {
+			this.bufferedBytes += fragment.getLength();
+			this.bufferedFragments++;
+			if ((this.bufferedBytes >= this.maxBufferedBytes || this.bufferedFragments >= this.maxBufferedFragments)
+				&& this.suspendToken == null && !this.closing && this.session instanceof WebSocketSession) {
+				// Stop reading frames off the socket until the reader catches up
+				this.suspendToken = ((WebSocketSession) this.session).suspend();
+				this.readSuspendCount++;
+				RelayLogger.logEvent("readSuspended", this, String.valueOf(this.bufferedBytes), String.valueOf(this.bufferedFragments));
+			}
+		}
+		this.fragmentQueue.enqueueAndDispatch(fragment);
+	}
+	
+	private void onFragmentDequeued(MessageFragment fragment) {
+		SuspendToken tokenToResume = null;
+		synchronized (this.thisLock) {
+			this.bufferedBytes -= fragment.getLength();
+			this.bufferedFragments--;
+			if (this.suspendToken != null && this.bufferedBytes <= this.maxBufferedBytes / 2 
+				&& this.bufferedFragments <= this.maxBufferedFragments / 2) {
+				tokenToResume = this.suspendToken;
+				this.suspendToken = null;
+			}
+		}
+		
+		if (tokenToResume != null) {
+			RelayLogger.logEvent("readResumed", this);
+			tokenToResume.resume();
+		}
+	}
+	
+	// Resumes reading from the socket if it was suspended and keeps reading, whatever the reader has left to drain
+	private void stopSuspendingReads() {
+		SuspendToken tokenToResume;
+		synchronized (this.thisLock) {
+			this.closing = true;
+			tokenToResume = this.suspendToken;
+			this.suspendToken = null;
+		}
+
+		if (tokenToResume != null) {
+			RelayLogger.logEvent("readResumed", this);
+			tokenToResume.resume();
+		}
+	}
+	
 	@OnClose
 	public void onClose(Session session, CloseReason reason) {
-        CompletableFuture.runAsync(() -> {
-            this.dispose();
-        }, executor);
+		synchronized (this.thisLock) {
+			// There is nothing left to read, the fragments which are still buffered can be drained as before
+			this.suspendToken = null;
+		}
+		this.dispose();
 		this.closeReason = reason;
 		RelayLogger.logEvent("clientWebSocketClosed", this, reason.getReasonPhrase());
 		this.textQueue.shutdown();
@@ -352,56 +561,52 @@ class ClientWebSocket extends Endpoint implements RelayTraceSource {
 	public void onError(Throwable cause) {
 		if (!this.isOpen()) {
 		    // A new websocket will be created through reconnection attempt, dispose this one
-	        CompletableFuture.runAsync(() -> {
-	            this.dispose();
-	        }, executor);
+	        this.dispose();
 		}
 	    RelayLogger.throwingException(cause, this);
 	}
 	
-	private static class MessageFragment {
-		private final byte[] bytes;
-		private final boolean ended;
-
-		MessageFragment(byte[] bytes, boolean ended) {
-			this.bytes = bytes;
-			this.ended = ended;
-		}
-
-		byte[] getBytes() {
-			return bytes;
-		}
-
-		boolean isEnd() {
-			return this.ended;
-		}
-	}
-	
 	private final class BinaryMessageReader {
 		private final TimeoutHelper timeoutHelper;
-		private final LinkedList<byte[]> fragments;
+		private final List<ByteBuffer> fragments;
 		private int messageSize;
 		
 		BinaryMessageReader(Duration timeout) {
 			timeoutHelper = new TimeoutHelper(timeout);
-			fragments = new LinkedList<byte[]>();
+			fragments = new ArrayList<ByteBuffer>();
 		}
 		
 		public CompletableFuture<ByteBuffer> readAsync() {
 			return readFragmentsAsync()
 				.thenApply((voidResult) -> {
+					RelayLogger.logEvent("receivedBytes", this, Integer.toString(messageSize));
+					
+					// A message which arrived in one fragment already sits in its own array
+					if (fragments.size() == 1) {
+						return fragments.get(0);
+					}
+					
+					// The joined message goes to a caller which owns it, so it is not taken from the buffer pool.
+					// Only the control request body skips the join, through readBuffersAsync.
 					byte[] message = new byte[messageSize];
 					int offset = 0;
-					for (byte[] bytes : fragments) {
-						System.arraycopy(bytes, 0, message, offset, bytes.length);
-						offset += bytes.length;
+					for (ByteBuffer fragment : fragments) {
+						int length = fragment.remaining();
+						fragment.get(message, offset, length);
+						offset += length;
 					}
-					
-					RelayLogger.logEvent("receivedBytes", this, Integer.toString(message.length));
 					return ByteBuffer.wrap(message);
 				});
 		}
 		
+		public CompletableFuture<ByteBuffer[]> readBuffersAsync() {
+			return readFragmentsAsync()
+				.thenApply((voidResult) -> {
+					RelayLogger.logEvent("receivedBytes", this, Integer.toString(messageSize));
+					return fragments.toArray(new ByteBuffer[fragments.size()]);
+				});
+		}
+		
 		private CompletableFuture<Void> readFragmentsAsync() {
 			return fragmentQueue.dequeueAsync(timeoutHelper.remainingTime())
 				.thenCompose((fragment) -> {
@@ -411,8 +616,10 @@ class ClientWebSocket extends Endpoint implements RelayTraceSource {
 						return CompletableFuture.completedFuture(null);
 					}
 	
+					onFragmentDequeued(fragment);
+					// The partial message handler hands each fragment over in its own array, so it can be wrapped rather than copied
 					messageSize += fragment.getBytes().length;
-					fragments.add(fragment.getBytes());
+					fragments.add(ByteBuffer.wrap(fragment.getBytes()));
 	
 					if (!fragment.isEnd()) {
 						return readFragmentsAsync();
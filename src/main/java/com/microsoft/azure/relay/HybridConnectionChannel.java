@@ -40,6 +40,52 @@ public interface HybridConnectionChannel extends Channel {
 	 */
 	public CompletableFuture<ByteBuffer> readAsync(Duration timeout);
 	
+	/**
+	 * Receives byte messages from the remote sender asynchronously as a list of buffers, one per received fragment.
+	 * Unlike {@link #readAsync()}, the fragments are not copied into a single buffer. The default implementation
+	 * falls back to {@link #readAsync()} and returns the message as a single buffer.
+	 * 
+	 * @return Returns a CompletableFuture of the buffers which completes when websocket receives the entire message.
+	 */
+	public default CompletableFuture<ByteBuffer[]> readBuffersAsync() {
+		return this.readAsync().thenApply(buffer -> (buffer != null) ? new ByteBuffer[] { buffer } : null);
+	}
+	
+	/**
+	 * Receives byte messages from the remote sender asynchronously within a given timeout as a list of buffers, 
+	 * one per received fragment. Unlike {@link #readAsync(Duration)}, the fragments are not copied into a single buffer.
+	 * The default implementation falls back to {@link #readAsync(Duration)} and returns the message as a single buffer.
+	 * 
+	 * @param timeout The timeout duration for this operation.
+	 * @return Returns a CompletableFuture of the buffers which completes when websocket receives the entire message.
+	 */
+	public default CompletableFuture<ByteBuffer[]> readBuffersAsync(Duration timeout) {
+		return this.readAsync(timeout).thenApply(buffer -> (buffer != null) ? new ByteBuffer[] { buffer } : null);
+	}
+	
+	/**
+	 * Receives the next fragment of a byte message from the remote sender asynchronously. Unlike {@link #readAsync()},
+	 * fragments are handed out as they arrive, and the channel stops reading from the network while too many 
+	 * received bytes are waiting to be read. The default implementation falls back to {@link #readAsync()} and 
+	 * returns each message as a single fragment.
+	 * 
+	 * @return Returns a CompletableFuture of the fragment, or null if the connection was closed.
+	 */
+	public default CompletableFuture<MessageFragment> readFragmentAsync() {
+		return this.readAsync().thenApply(MessageFragment::fromMessage);
+	}
+	
+	/**
+	 * Receives the next fragment of a byte message from the remote sender asynchronously within a given timeout.
+	 * The default implementation falls back to {@link #readAsync(Duration)} and returns each message as a single fragment.
+	 * 
+	 * @param timeout The timeout duration for this operation.
+	 * @return Returns a CompletableFuture of the fragment, or null if the connection was closed.
+	 */
+	public default CompletableFuture<MessageFragment> readFragmentAsync(Duration timeout) {
+		return this.readAsync(timeout).thenApply(MessageFragment::fromMessage);
+	}
+	
 	/**
 	 * Sends the data to the remote endpoint as binary.
 	 * 
@@ -56,4 +102,19 @@ public interface HybridConnectionChannel extends Channel {
 	 * @return A CompletableFuture which completes when websocket finishes sending the bytes.
 	 */
 	public CompletableFuture<Void> writeAsync(ByteBuffer data, Duration timeout);
+	
+	/**
+	 * Sends the data to the remote endpoint within a timeout as binary without copying it first. Heap and direct
+	 * buffers are both handed to the transport as is. The channel owns the buffer until the returned CompletableFuture
+	 * completes, so the caller must not read or modify it in the meantime. The content of the buffer is unspecified 
+	 * afterwards because outgoing frames are masked in place. The default implementation falls back to
+	 * {@link #writeAsync(ByteBuffer, Duration)}.
+	 * 
+	 * @param data Message to be sent.
+	 * @param timeout The timeout to connect to send the data within. May be null to indicate no timeout limit.
+	 * @return A CompletableFuture which completes when websocket finishes sending the bytes.
+	 */
+	public default CompletableFuture<Void> writeWithoutCopyAsync(ByteBuffer data, Duration timeout) {
+		return this.writeAsync(data, timeout);
+	}
 }
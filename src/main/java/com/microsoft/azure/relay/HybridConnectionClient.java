@@ -11,6 +11,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.websocket.ClientEndpointConfig;
 
@@ -24,6 +25,10 @@ public class HybridConnectionClient implements RelayTraceSource {
 	private URI address;
 	private TokenProvider tokenProvider;
 	private Duration operationTimeout;
+	private URI endpointOverride;
+	private long maxBufferedBytes = ClientWebSocket.DEFAULT_MAX_BUFFERED_BYTES;
+	private int maxBufferedFragments = ClientWebSocket.DEFAULT_MAX_BUFFERED_FRAGMENTS;
+	private ScheduledExecutorService executor = EXECUTOR;
 	
 	/**
 	 * Create a new HybridConnectionClient instance for initiating HybridConnections
@@ -156,11 +161,80 @@ public class HybridConnectionClient implements RelayTraceSource {
 	public void setOperationTimeout(Duration operationTimeout) {
 		this.operationTimeout = operationTimeout;
 	}
+
+	/**
+	 * @return The number of received but unread bytes after which a connection stops reading from the network.
+	 */
+	public long getMaxBufferedBytes() {
+		return this.maxBufferedBytes;
+	}
+
+	/**
+	 * Sets the number of received but unread bytes after which a connection stops reading from the network
+	 * until its reader catches up. Applies to connections created after this call.
+	 */
+	public void setMaxBufferedBytes(long maxBufferedBytes) {
+		if (maxBufferedBytes > 0) {
+			this.maxBufferedBytes = maxBufferedBytes;
+		} else {
+			RelayLogger.logEvent("objectNotSet", this, "maxBufferedBytes");
+		}
+	}
+
+	/**
+	 * @return The number of received but unread message fragments after which a connection stops reading from the network.
+	 */
+	public int getMaxBufferedFragments() {
+		return this.maxBufferedFragments;
+	}
+
+	/**
+	 * Sets the number of received but unread message fragments after which a connection stops reading from the network
+	 * until its reader catches up. Applies to connections created after this call.
+	 */
+	public void setMaxBufferedFragments(int maxBufferedFragments) {
+		if (maxBufferedFragments > 0) {
+			this.maxBufferedFragments = maxBufferedFragments;
+		} else {
+			RelayLogger.logEvent("objectNotSet", this, "maxBufferedFragments");
+		}
+	}
+	
+	/**
+	 * @return The executor which runs the timeouts and completions of the connections of this client.
+	 */
+	public ScheduledExecutorService getExecutor() {
+		return this.executor;
+	}
+
+	/**
+	 * Sets the executor which runs the timeouts and completions of the connections of this client, instead of the
+	 * executor shared by all clients. The caller owns the executor and shuts it down once the connections are closed.
+	 * Applies to connections created after this call.
+	 */
+	public void setExecutor(ScheduledExecutorService executor) {
+		if (executor == null) {
+			throw RelayLogger.argumentNull("executor", this);
+		}
+		this.executor = executor;
+	}
 	
 	public TrackingContext getTrackingContext() {
 		return this.trackingContext;
 	}
 
+	URI getEndpointOverride() {
+		return this.endpointOverride;
+	}
+
+	/**
+	 * Connects to the given endpoint instead of the host of the client address, e.g. "ws://localhost:8080" 
+	 * to use a local relay for testing.
+	 */
+	void setEndpointOverride(URI endpointOverride) {
+		this.endpointOverride = endpointOverride;
+	}
+
 	@Override
 	public String toString() {
 		if (this.cachedString == null) {
@@ -192,28 +266,31 @@ public class HybridConnectionClient implements RelayTraceSource {
 		RelayLogger.logEvent("connecting", this);
 
 		String audience = HybridConnectionUtil.getAudience(this.address);
-		CompletableFuture<SecurityToken> token = this.tokenProvider.getTokenAsync(audience,
-				TokenProvider.DEFAULT_TOKEN_TIMEOUT);
-
-		// Set the authentication in request header
-		Map<String, List<String>> headers = new HashMap<String, List<String>>();
-		headers.put(RelayConstants.SERVICEBUS_AUTHORIZATION_HEADER_NAME, Arrays.asList(token.join().getToken()));
-		HybridConnectionEndpointConfigurator configurator = new HybridConnectionEndpointConfigurator();
-		configurator.addHeaders(headers);
-		if (customHeaders != null) {
-			configurator.addHeaders(customHeaders);
-		}
-		ClientEndpointConfig config = ClientEndpointConfig.Builder.create().configurator(configurator).build();
-
+		TrackingContext trackingContext = this.trackingContext;
+		URI uri;
 		try {
-			URI uri = HybridConnectionUtil.buildUri(this.address.getHost(), this.address.getPort(),
-					this.address.getPath(), this.address.getQuery(), HybridConnectionConstants.Actions.CONNECT,
+			uri = HybridConnectionUtil.buildUri(this.address, this.endpointOverride, HybridConnectionConstants.Actions.CONNECT,
 					trackingContext.getTrackingId());
-			WebSocketChannel channel = new WebSocketChannel(trackingContext, EXECUTOR);
-			return channel.getWebSocket().connectAsync(uri, this.operationTimeout, config).thenApply($void -> channel);
 		} catch (URISyntaxException e) {
 			return CompletableFutureUtil.fromException(e);
 		}
+
+		return this.tokenProvider.getTokenAsync(audience, TokenProvider.DEFAULT_TOKEN_TIMEOUT).thenCompose(token -> {
+			// Set the authentication in request header
+			Map<String, List<String>> headers = new HashMap<String, List<String>>();
+			headers.put(RelayConstants.SERVICEBUS_AUTHORIZATION_HEADER_NAME, Arrays.asList(token.getToken()));
+			HybridConnectionEndpointConfigurator configurator = new HybridConnectionEndpointConfigurator();
+			configurator.addHeaders(headers);
+			if (customHeaders != null) {
+				configurator.addHeaders(customHeaders);
+			}
+			ClientEndpointConfig config = ClientEndpointConfig.Builder.create().configurator(configurator).build();
+
+			WebSocketChannel channel = new WebSocketChannel(trackingContext, this.executor);
+			channel.getWebSocket().setMaxBufferedBytes(this.maxBufferedBytes);
+			channel.getWebSocket().setMaxBufferedFragments(this.maxBufferedFragments);
+			return channel.getWebSocket().connectAsync(uri, this.operationTimeout, config).thenApply($void -> channel);
+		});
 	}
 
 	private static TrackingContext createTrackingContext(URI address) {
@@ -11,8 +11,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.websocket.ClientEndpointConfig;
 import javax.websocket.CloseReason;
@@ -26,13 +30,20 @@ import com.microsoft.azure.relay.ListenerCommand.*;
 
 public class HybridConnectionListener implements RelayTraceSource, AutoCloseable {
 	static final AutoShutdownScheduledExecutor EXECUTOR = AutoShutdownScheduledExecutor.Create();
-	private final InputQueue<HybridConnectionChannel> connectionInputQueue;
+	static final ExecutorService HANDLER_EXECUTOR = AutoShutdownScheduledExecutor.createHandlerExecutor();
+	static final Duration DEFAULT_ACCEPT_TIMEOUT = Duration.ofSeconds(20);
+	static final int DEFAULT_MAX_CONTROL_RESPONSE_BODY_SIZE = 64 * 1024;
+	static final Duration DEFAULT_RESPONSE_FLUSH_TIMEOUT = Duration.ofSeconds(2);
+	private InputQueue<HybridConnectionChannel> connectionInputQueue;
 	private final ControlConnection controlConnection;
+	private final HybridConnectionListenerStatistics statistics = new HybridConnectionListenerStatistics();
 	private final Object thisLock = new Object();
 	private boolean openCalled;
 	private volatile boolean closeCalled;
 	private Duration operationTimeout;
 	private int maxWebSocketBufferSize;
+	private long maxBufferedBytes = ClientWebSocket.DEFAULT_MAX_BUFFERED_BYTES;
+	private int maxBufferedFragments = ClientWebSocket.DEFAULT_MAX_BUFFERED_FRAGMENTS;
 	private String cachedString;
 	private Function<RelayedHttpListenerContext, Boolean> acceptHandler;
 	private Consumer<RelayedHttpListenerContext> requestHandler;
@@ -40,6 +51,19 @@ public class HybridConnectionListener implements RelayTraceSource, AutoCloseable
 	private TrackingContext trackingContext;
 	private TokenProvider tokenProvider;
 	private Throwable injectedFault;
+	private URI endpointOverride;
+	private ScheduledExecutorService executor = EXECUTOR;
+	private Executor handlerExecutor;
+	private int maxConcurrentRequests;
+	private int maxQueuedRequests;
+	private AsyncSemaphore requestLimiter;
+	private int acceptBacklog;
+	private Duration acceptTimeout = DEFAULT_ACCEPT_TIMEOUT;
+	private int maxConcurrentRendezvous;
+	private volatile int maxControlResponseBodySize = DEFAULT_MAX_CONTROL_RESPONSE_BODY_SIZE;
+	private volatile Duration responseFlushTimeout = DEFAULT_RESPONSE_FLUSH_TIMEOUT;
+	private volatile BufferPool bufferPool = BufferPool.getShared();
+	private AsyncSemaphore rendezvousLimiter;
 	private Consumer<Throwable> connectingHandler;
 	private Consumer<Throwable> offlineHandler;
 	private Runnable onlineHandler;
@@ -206,6 +230,260 @@ public class HybridConnectionListener implements RelayTraceSource, AutoCloseable
 		return this.operationTimeout;
 	}
 
+	/**
+	 * @return The executor which runs the timeouts, commands and completions of this listener and its connections.
+	 */
+	public ScheduledExecutorService getExecutor() {
+		return this.executor;
+	}
+
+	/**
+	 * Sets the executor which runs the timeouts, commands and completions of this listener and its connections,
+	 * instead of the executor shared by all listeners. The caller owns the executor and shuts it down once the
+	 * listener is closed. Must be set before the listener is opened.
+	 */
+	public void setExecutor(ScheduledExecutorService executor) {
+		if (executor == null) {
+			throw RelayLogger.argumentNull("executor", this);
+		}
+
+		synchronized (this.thisLock) {
+			if (this.openCalled) {
+				throw RelayLogger.invalidOperation("Cannot change the executor once the listener is opened.", this);
+			}
+
+			this.executor = executor;
+			this.connectionInputQueue = new InputQueue<HybridConnectionChannel>(executor);
+			this.controlConnection.sendAsyncLock = new AsyncLock(executor);
+			this.statistics.setExecutor(executor);
+		}
+	}
+
+	/**
+	 * @return The number of accepted connections which may wait for acceptConnectionAsync, or 0 if there is no limit.
+	 */
+	public int getAcceptBacklog() {
+		return this.acceptBacklog;
+	}
+
+	/**
+	 * Limits the number of accepted connections which wait for acceptConnectionAsync, counting the ones still being 
+	 * connected, like the backlog of a TCP listen socket. Connections which arrive while the backlog is full are 
+	 * rejected with 503 Service Unavailable, so that an application which accepts slower than connections arrive 
+	 * doesn't pile up open websockets.
+	 * 
+	 * @param acceptBacklog The number of connections which may wait, or 0 for no limit
+	 */
+	public void setAcceptBacklog(int acceptBacklog) {
+		if (acceptBacklog < 0) {
+			throw RelayLogger.throwingException(new IllegalArgumentException("acceptBacklog cannot be negative."), this);
+		}
+
+		this.acceptBacklog = acceptBacklog;
+	}
+
+	/**
+	 * @return The time within which the rendezvous connection for an incoming connection has to be established.
+	 */
+	public Duration getAcceptTimeout() {
+		return this.acceptTimeout;
+	}
+
+	/**
+	 * Sets the time within which the rendezvous connection for an incoming connection has to be established,
+	 * including the time it waits for its turn under setMaxConcurrentRendezvous, 20 seconds by default.
+	 */
+	public void setAcceptTimeout(Duration acceptTimeout) {
+		TimeoutHelper.throwIfNegativeArgument(acceptTimeout, "acceptTimeout");
+		this.acceptTimeout = acceptTimeout;
+	}
+
+	/**
+	 * @return The number of rendezvous connections the listener establishes at the same time, or 0 if there is no limit.
+	 */
+	public int getMaxConcurrentRendezvous() {
+		return this.maxConcurrentRendezvous;
+	}
+
+	/**
+	 * Limits the number of rendezvous connections for accepting or rejecting incoming connections which the listener
+	 * establishes at the same time. The others wait for their turn in the order they arrived, so that a storm of 
+	 * incoming connections, such as after the listener reconnected, doesn't take up every thread of the executor.
+	 * Must be set before the listener is opened.
+	 * 
+	 * @param maxConcurrentRendezvous The number of rendezvous connections to establish at the same time, or 0 for no limit
+	 */
+	public void setMaxConcurrentRendezvous(int maxConcurrentRendezvous) {
+		if (maxConcurrentRendezvous < 0) {
+			throw RelayLogger.throwingException(new IllegalArgumentException("maxConcurrentRendezvous cannot be negative."), this);
+		}
+
+		synchronized (this.thisLock) {
+			if (this.openCalled) {
+				throw RelayLogger.invalidOperation("Cannot change the rendezvous limit once the listener is opened.", this);
+			}
+
+			this.maxConcurrentRendezvous = maxConcurrentRendezvous;
+		}
+	}
+
+	/**
+	 * @return The size up to which a response body is buffered to be sent over the control connection.
+	 */
+	public int getMaxControlResponseBodySize() {
+		return this.maxControlResponseBodySize;
+	}
+
+	/**
+	 * Sets the size up to which a response body is buffered to be sent along with the response over the control
+	 * connection, 64 KB by default. A response with a larger body, or one which is still being written when the 
+	 * response flush timeout elapses, is sent over a rendezvous connection of its own instead. Applies to requests
+	 * received after this call.
+	 * 
+	 * @param maxControlResponseBodySize The size in bytes, or 0 to send every response with a body over a rendezvous connection
+	 */
+	public void setMaxControlResponseBodySize(int maxControlResponseBodySize) {
+		if (maxControlResponseBodySize < 0) {
+			throw RelayLogger.throwingException(new IllegalArgumentException("maxControlResponseBodySize cannot be negative."), this);
+		}
+
+		this.maxControlResponseBodySize = maxControlResponseBodySize;
+	}
+
+	/**
+	 * @return How long a response body is buffered for the control connection before it is sent over a rendezvous connection.
+	 */
+	public Duration getResponseFlushTimeout() {
+		return this.responseFlushTimeout;
+	}
+
+	/**
+	 * Sets how long after the first write a response body which is not closed yet is still buffered to be sent over
+	 * the control connection, 2 seconds by default. After that the response is sent over a rendezvous connection, so 
+	 * that the client gets the beginning of a slow response. Applies to requests received after this call.
+	 * 
+	 * @param responseFlushTimeout The time to buffer for, or null to buffer until the response is closed or outgrows the control connection
+	 */
+	public void setResponseFlushTimeout(Duration responseFlushTimeout) {
+		TimeoutHelper.throwIfNegativeArgument(responseFlushTimeout, "responseFlushTimeout");
+		this.responseFlushTimeout = responseFlushTimeout;
+	}
+
+	/**
+	 * @return The pool the listener takes the buffers of its HTTP responses and websocket writes from.
+	 */
+	public BufferPool getBufferPool() {
+		return this.bufferPool;
+	}
+
+	/**
+	 * Sets the pool the listener takes the buffers of its HTTP responses and websocket writes from, and gives them
+	 * back to once a response is closed or a write is done. Listeners share BufferPool.getShared() unless they are
+	 * given another one. Applies to requests and connections received after this call.
+	 * 
+	 * @param bufferPool The pool, which may be shared with other listeners. A pool which keeps no buffers turns pooling off.
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		if (bufferPool == null) {
+			throw RelayLogger.argumentNull("bufferPool", this);
+		}
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * @return The number of HTTP requests the listener handles at the same time, or 0 if there is no limit.
+	 */
+	public int getMaxConcurrentRequests() {
+		return this.maxConcurrentRequests;
+	}
+
+	/**
+	 * Limits the number of HTTP requests the listener handles at the same time. A request counts until its response
+	 * is closed, or until the operation timeout after its handler returned without closing it. Requests above the limit wait for others to finish, up to the number set through setMaxQueuedRequests,
+	 * and the ones which don't fit or don't get their turn within the operation timeout are answered with 503 
+	 * Service Unavailable without running the request handler. Must be set before the listener is opened.
+	 * 
+	 * @param maxConcurrentRequests The number of requests to handle at the same time, or 0 for no limit
+	 */
+	public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+		if (maxConcurrentRequests < 0) {
+			throw RelayLogger.throwingException(new IllegalArgumentException("maxConcurrentRequests cannot be negative."), this);
+		}
+
+		synchronized (this.thisLock) {
+			if (this.openCalled) {
+				throw RelayLogger.invalidOperation("Cannot change the request limit once the listener is opened.", this);
+			}
+
+			this.maxConcurrentRequests = maxConcurrentRequests;
+		}
+	}
+
+	/**
+	 * @return The number of HTTP requests which may wait for others to finish once getMaxConcurrentRequests are in flight.
+	 */
+	public int getMaxQueuedRequests() {
+		return this.maxQueuedRequests;
+	}
+
+	/**
+	 * Sets the number of HTTP requests which may wait for others to finish once getMaxConcurrentRequests are 
+	 * in flight, 0 by default so that the requests above the limit are rejected right away.
+	 */
+	public void setMaxQueuedRequests(int maxQueuedRequests) {
+		if (maxQueuedRequests < 0) {
+			throw RelayLogger.throwingException(new IllegalArgumentException("maxQueuedRequests cannot be negative."), this);
+		}
+
+		this.maxQueuedRequests = maxQueuedRequests;
+	}
+
+	/**
+	 * @return The executor which runs the accept and request handlers. Unless another one was set, this is an 
+	 *         executor shared by all listeners which starts a thread for every handler that finds the others busy.
+	 */
+	public Executor getHandlerExecutor() {
+		return (this.handlerExecutor != null) ? this.handlerExecutor : HANDLER_EXECUTOR;
+	}
+
+	/**
+	 * Sets the executor which runs the accept and request handlers. A handler which blocks only holds on to a
+	 * thread of this executor, so it should not be the listener executor, which the listener needs for its own I/O.
+	 * Null restores the shared handler executor. Applies to connections and requests received after this call.
+	 */
+	public void setHandlerExecutor(Executor handlerExecutor) {
+		this.handlerExecutor = handlerExecutor;
+	}
+
+	/**
+	 * @return True if every accept and request handler runs on a virtual thread of its own.
+	 */
+	public boolean isVirtualThreadHandlers() {
+		return VirtualThreads.isSupported() && this.handlerExecutor == VirtualThreads.getExecutor();
+	}
+
+	/**
+	 * Runs every accept and request handler on a virtual thread of its own, so that handlers can block without
+	 * sizing a thread pool for them. Replaces any executor set through setHandlerExecutor.
+	 * 
+	 * @param enabled True to run the handlers on virtual threads, false to run them on the shared handler executor
+	 * @throws UnsupportedOperationException Thrown when enabling on a runtime older than Java 21
+	 */
+	public void setVirtualThreadHandlers(boolean enabled) {
+		if (enabled) {
+			this.handlerExecutor = VirtualThreads.getExecutor();
+		} else if (this.isVirtualThreadHandlers()) {
+			this.handlerExecutor = null;
+		}
+	}
+
+	/**
+	 * @return Live counters describing the activity of this listener.
+	 */
+	public HybridConnectionListenerStatistics getStatistics() {
+		return this.statistics;
+	}
+
 	public int getMaxWebSocketBufferSize() {
 		return maxWebSocketBufferSize;
 	}
@@ -218,6 +496,44 @@ public class HybridConnectionListener implements RelayTraceSource, AutoCloseable
 		}
 	}
 
+	/**
+	 * @return The number of received but unread bytes after which an accepted connection stops reading from the network.
+	 */
+	public long getMaxBufferedBytes() {
+		return this.maxBufferedBytes;
+	}
+
+	/**
+	 * Sets the number of received but unread bytes after which an accepted connection stops reading from the network
+	 * until its reader catches up. Applies to connections accepted after this call.
+	 */
+	public void setMaxBufferedBytes(long maxBufferedBytes) {
+		if (maxBufferedBytes > 0) {
+			this.maxBufferedBytes = maxBufferedBytes;
+		} else {
+			RelayLogger.logEvent("objectNotSet", this, "maxBufferedBytes");
+		}
+	}
+
+	/**
+	 * @return The number of received but unread message fragments after which an accepted connection stops reading from the network.
+	 */
+	public int getMaxBufferedFragments() {
+		return this.maxBufferedFragments;
+	}
+
+	/**
+	 * Sets the number of received but unread message fragments after which an accepted connection stops reading from 
+	 * the network until its reader catches up. Applies to connections accepted after this call.
+	 */
+	public void setMaxBufferedFragments(int maxBufferedFragments) {
+		if (maxBufferedFragments > 0) {
+			this.maxBufferedFragments = maxBufferedFragments;
+		} else {
+			RelayLogger.logEvent("objectNotSet", this, "maxBufferedFragments");
+		}
+	}
+
 	/**
 	 * Returns the handler that will be run when the listener disconnects unexpectedly.
 	 * The listener will attempt to reconnect after this handler runs.	
@@ -294,6 +610,14 @@ public class HybridConnectionListener implements RelayTraceSource, AutoCloseable
 				return CompletableFutureUtil.fromException(e);
 			}
 			this.openCalled = true;
+			if (this.maxConcurrentRequests > 0) {
+				this.requestLimiter = new AsyncSemaphore(this.maxConcurrentRequests, this.executor);
+				this.statistics.setRequestLimiter(this.requestLimiter);
+			}
+			if (this.maxConcurrentRendezvous > 0) {
+				this.rendezvousLimiter = new AsyncSemaphore(this.maxConcurrentRendezvous, this.executor);
+				this.statistics.setRendezvousLimiter(this.rendezvousLimiter);
+			}
 		}
 
 		return this.controlConnection.openAsync(timeout);
@@ -380,6 +704,37 @@ public class HybridConnectionListener implements RelayTraceSource, AutoCloseable
 		return this.cachedString;
     }
 
+	/**
+	 * Lets an HTTP request through once it is within the limit of concurrent requests.
+	 * 
+	 * @return The future which completes with the permit to release when the request is finished, with null if 
+	 *         there is no limit, or exceptionally if it timed out waiting. Null if the request has to be rejected.
+	 */
+	CompletableFuture<AsyncSemaphore.LockRelease> admitRequestAsync() {
+		AsyncSemaphore requestLimiter = this.requestLimiter;
+		if (requestLimiter == null) {
+			this.statistics.onRequestAdmitted();
+			return CompletableFuture.completedFuture(null);
+		}
+
+		CompletableFuture<AsyncSemaphore.LockRelease> admitTask = requestLimiter.tryAcquireAsync(this.operationTimeout, this.maxQueuedRequests);
+		if (admitTask == null) {
+			this.statistics.onRequestRejected();
+			return null;
+		}
+
+		if (!admitTask.isDone()) {
+			this.statistics.onRequestQueued();
+		}
+		return admitTask.whenComplete((lockRelease, ex) -> {
+			if (ex == null) {
+				this.statistics.onRequestAdmitted();
+			} else {
+				this.statistics.onRequestRejected();
+			}
+		});
+	}
+
 	CompletableFuture<Void> sendControlCommandAndStreamAsync(ListenerCommand command, ByteBuffer buffer, Duration timeout) {
 		return this.controlConnection.sendCommandAndStreamAsync(command, buffer, timeout);
 	}
@@ -405,10 +760,11 @@ public class HybridConnectionListener implements RelayTraceSource, AutoCloseable
 	    RequestCommand request = listenerCommand.getRequest();
 
 		if (accept != null) {
+			long receivedTime = System.nanoTime();
 	         // Don't block the pump waiting for the rendezvous
 			return CompletableFuture.completedFuture(accept).thenComposeAsync(acceptCommand -> {
-			    return this.onAcceptCommandAsync(acceptCommand);
-			}, EXECUTOR);
+			    return this.onAcceptCommandAsync(acceptCommand, receivedTime);
+			}, this.executor);
 		} else if (request != null) {
 			return HybridHttpConnection.createAsync(this, request, controlWebSocket);
 		} else {
@@ -416,7 +772,7 @@ public class HybridConnectionListener implements RelayTraceSource, AutoCloseable
 		}
 	}
 
-	private CompletableFuture<Void> onAcceptCommandAsync(ListenerCommand.AcceptCommand acceptCommand) {
+	private CompletableFuture<Void> onAcceptCommandAsync(ListenerCommand.AcceptCommand acceptCommand, long receivedTime) {
 		try {
 			URI rendezvousUri = new URI(acceptCommand.getAddress());
 			URI requestUri = this.generateAcceptRequestUri(rendezvousUri);
@@ -427,29 +783,40 @@ public class HybridConnectionListener implements RelayTraceSource, AutoCloseable
 
 			Function<RelayedHttpListenerContext, Boolean> acceptHandler = this.acceptHandler;
 
-			boolean shouldAccept = acceptHandler == null;
-
 			RelayLogger.logEvent("rendezvousStart", this, acceptCommand.getAddress());
 			
 			if (acceptHandler != null) {
-				// Invoke and await the user's AcceptHandler method
-				try {
-					shouldAccept = acceptHandler.apply(listenerContext);
-				} catch (Exception userException) {
-                    listenerContext.getResponse().setStatusCode(HttpStatus.BAD_GATEWAY_502);
-                    listenerContext.getResponse().setStatusDescription("The Listener's custom AcceptHandler threw an exception. See Listener logs for details. TrackingId: " + listenerContext.getTrackingContext().getTrackingId());
-					throw RelayLogger.throwingException(userException, this);
-				}
+				// The handler may block, so it runs off the listener executor which its accept commands arrive on
+				return CompletableFuture.supplyAsync(() -> this.invokeAcceptHandler(acceptHandler, listenerContext), this.getHandlerExecutor())
+					.handle((shouldAccept, ex) -> (ex == null) 
+						? this.completeAcceptAsync(listenerContext, rendezvousUri, shouldAccept, receivedTime)
+						: this.onAcceptFailed(ex))
+					.thenCompose(completeAcceptTask -> completeAcceptTask);
 			}
 
-			return this.completeAcceptAsync(listenerContext, rendezvousUri, shouldAccept);
+			return this.completeAcceptAsync(listenerContext, rendezvousUri, true, receivedTime);
 		} catch (Exception exception) {
-			RelayLogger.logEvent("rendezvousFailed", this, exception.toString());
-			RelayLogger.logEvent("rendezVousStop", this);
-			return CompletableFutureUtil.fromException(exception);
+			return this.onAcceptFailed(exception);
+		}
+	}
+
+	// Invoke and await the user's AcceptHandler method
+	private boolean invokeAcceptHandler(Function<RelayedHttpListenerContext, Boolean> acceptHandler, RelayedHttpListenerContext listenerContext) {
+		try {
+			return acceptHandler.apply(listenerContext);
+		} catch (Exception userException) {
+			listenerContext.getResponse().setStatusCode(HttpStatus.BAD_GATEWAY_502);
+			listenerContext.getResponse().setStatusDescription("The Listener's custom AcceptHandler threw an exception. See Listener logs for details. TrackingId: " + listenerContext.getTrackingContext().getTrackingId());
+			throw RelayLogger.throwingException(userException, this);
 		}
 	}
 
+	private CompletableFuture<Void> onAcceptFailed(Throwable exception) {
+		RelayLogger.logEvent("rendezvousFailed", this, exception.toString());
+		RelayLogger.logEvent("rendezVousStop", this);
+		return CompletableFutureUtil.fromException(exception);
+	}
+
 	/**
 	/* Form the logical request Uri using the scheme://host:port from the listener
 	/* and the path from the acceptCommand (minus "/$hc")
@@ -465,27 +832,46 @@ public class HybridConnectionListener implements RelayTraceSource, AutoCloseable
 				address.getFragment());
 	}
 
-	private CompletableFuture<Void> completeAcceptAsync(RelayedHttpListenerContext listenerContext, URI rendezvousUri, boolean shouldAccept) {
-		CompletableFuture<Void> completeAcceptTask = new CompletableFuture<Void>();
+	private CompletableFuture<Void> completeAcceptAsync(RelayedHttpListenerContext listenerContext, URI rendezvousUri, boolean shouldAccept, long receivedTime) {
+		CompletableFuture<Void> completeAcceptTask;
+		// The accept timeout covers both the wait for a turn and the connect
+		TimeoutHelper timeoutHelper = new TimeoutHelper(this.acceptTimeout, true);
 		
-		if (shouldAccept) {
-			synchronized (this.thisLock) {
-				WebSocketChannel rendezvousConnection = new WebSocketChannel(listenerContext.getTrackingContext(), EXECUTOR);
+		if (shouldAccept && !this.enterAcceptBacklog()) {
+			shouldAccept = false;
+			listenerContext.getResponse().setStatusCode(HttpStatus.SERVICE_UNAVAILABLE_503);
+			listenerContext.getResponse().setStatusDescription("The listener's accept backlog is full.");
+		}
 
-				if (this.closeCalled) {
-					RelayLogger.logEvent("rendezvousClose", this, rendezvousUri.toString());
-					completeAcceptTask = CompletableFuture.completedFuture(null);
-				} else {
-					completeAcceptTask = rendezvousConnection.getWebSocket().connectAsync(rendezvousUri).thenRun(() -> 
-						this.connectionInputQueue.enqueueAndDispatch(rendezvousConnection, null, false));
-				}
+		if (shouldAccept) {
+			// Connecting blocks a thread of the executor, so it is done without holding any lock
+			if (this.closeCalled) {
+				RelayLogger.logEvent("rendezvousClose", this, rendezvousUri.toString());
+				this.statistics.onAcceptBacklogLeft();
+				completeAcceptTask = CompletableFuture.completedFuture(null);
+			} else {
+				WebSocketChannel rendezvousConnection = new WebSocketChannel(listenerContext.getTrackingContext(), this.executor);
+				rendezvousConnection.getWebSocket().setMaxBufferedBytes(this.maxBufferedBytes);
+				rendezvousConnection.getWebSocket().setMaxBufferedFragments(this.maxBufferedFragments);
+
+				completeAcceptTask = this.limitRendezvousAsync(timeoutHelper, 
+						() -> rendezvousConnection.getWebSocket().connectAsync(rendezvousUri, timeoutHelper.remainingTime()))
+					.whenComplete(($void, ex) -> {
+						if (ex != null) {
+							this.statistics.onAcceptBacklogLeft();
+						}
+					})
+					.thenRun(() -> {
+						this.connectionInputQueue.enqueueAndDispatch(rendezvousConnection, dequeued -> this.statistics.onAcceptBacklogLeft(), false);
+						this.statistics.getAcceptLatency().record(System.nanoTime() - receivedTime);
+					});
 			}
 		} else {
 			RelayLogger.logEvent("rendezvousRejected", 
 					this, 
 					String.valueOf(listenerContext.getResponse().getStatusCode()), 
 					listenerContext.getResponse().getStatusDescription());
-			completeAcceptTask = listenerContext.rejectAsync(rendezvousUri);
+			completeAcceptTask = this.limitRendezvousAsync(timeoutHelper, () -> listenerContext.rejectAsync(rendezvousUri, timeoutHelper.remainingTime()));
 		}
 		
 		return completeAcceptTask.whenComplete((result, ex) -> {
@@ -496,6 +882,35 @@ public class HybridConnectionListener implements RelayTraceSource, AutoCloseable
 		});
 	}
 	
+	// Establishes the rendezvous once it is within the limit of concurrent rendezvous, if there is one
+	private CompletableFuture<Void> limitRendezvousAsync(TimeoutHelper timeoutHelper, Supplier<CompletableFuture<Void>> rendezvous) {
+		AsyncSemaphore rendezvousLimiter = this.rendezvousLimiter;
+		return (rendezvousLimiter != null) ? rendezvousLimiter.acquireThenCompose(timeoutHelper.remainingTime(), rendezvous) : rendezvous.get();
+	}
+
+	// Takes a place in the accept backlog for a connection, false if the backlog is full
+	private boolean enterAcceptBacklog() {
+		int backlogDepth = this.statistics.onAcceptBacklogEntered();
+		if (this.acceptBacklog > 0 && backlogDepth > this.acceptBacklog) {
+			this.statistics.onAcceptBacklogLeft();
+			this.statistics.onAcceptRejected();
+			return false;
+		}
+		return true;
+	}
+
+	URI getEndpointOverride() {
+		return this.endpointOverride;
+	}
+
+	/**
+	 * Connects the control connection to the given endpoint instead of the host of the listener address, 
+	 * e.g. "ws://localhost:8080" to use a local relay for testing. Must be set before the listener is opened.
+	 */
+	void setEndpointOverride(URI endpointOverride) {
+		this.endpointOverride = endpointOverride;
+	}
+
 	void clearFault() {
         this.injectedFault = null;
 	}
@@ -537,7 +952,7 @@ public class HybridConnectionListener implements RelayTraceSource, AutoCloseable
 		@SuppressWarnings("unused")
 		private String path;
 		private final TokenRenewer tokenRenewer;
-		private final AsyncLock sendAsyncLock;
+		private AsyncLock sendAsyncLock;
 		private final Object thisLock = new Object();
 		private CompletableFuture<ClientWebSocket> connectAsyncTask;
 		private int connectDelayIndex;
@@ -549,7 +964,7 @@ public class HybridConnectionListener implements RelayTraceSource, AutoCloseable
 			this.address = listener.address;
 			String rawPath = this.address.getPath();
 			this.path = (rawPath.startsWith("/")) ? rawPath.substring(1) : rawPath;
-			this.sendAsyncLock = new AsyncLock(EXECUTOR);
+			this.sendAsyncLock = new AsyncLock(listener.executor);
 			this.tokenRenewer = new TokenRenewer(
 				this.listener, this.address.toString(),	TokenProvider.DEFAULT_TOKEN_TIMEOUT);
 		}
@@ -650,7 +1065,8 @@ public class HybridConnectionListener implements RelayTraceSource, AutoCloseable
 							return webSocket.writeAsync(json, timeout, true, WriteMode.TEXT)
 								.thenCompose($void -> {
 									if (buffer != null) {
-										return webSocket.writeAsync(buffer);
+										// The body is an internal buffer of the response stream, so it can be sent without a copy
+										return webSocket.writeAsync(buffer, null, true, WriteMode.BINARY, false);
 									} else {
 										return CompletableFuture.completedFuture(null);
 									}
@@ -696,15 +1112,8 @@ public class HybridConnectionListener implements RelayTraceSource, AutoCloseable
 			try {
 				this.listener.throwIfDisposed();
 				
-				CompletableFuture<Void> delayTask = CompletableFutureUtil.delayAsync(RelayConstants.CONNECTION_DELAY_INTERVALS[this.connectDelayIndex], EXECUTOR);
-				CompletableFuture<SecurityToken> token = this.tokenRenewer.getTokenAsync();
-
-				// Set the authentication in request header
-				Map<String, List<String>> headers = new HashMap<String, List<String>>();
-				headers.put(RelayConstants.SERVICEBUS_AUTHORIZATION_HEADER_NAME, Arrays.asList(token.join().getToken()));
-				HybridConnectionEndpointConfigurator configurator = new HybridConnectionEndpointConfigurator();
-				configurator.addHeaders(headers);
-				ClientEndpointConfig config = ClientEndpointConfig.Builder.create().configurator(configurator).build();
+				CompletableFuture<Void> delayTask = CompletableFutureUtil.delayAsync(RelayConstants.CONNECTION_DELAY_INTERVALS[this.connectDelayIndex], this.listener.executor);
+				CompletableFuture<SecurityToken> tokenTask = this.tokenRenewer.getTokenAsync();
 
 				// When we reconnect we need to remove the "_GXX" suffix otherwise trackingId
 				// gets longer after each reconnect
@@ -712,15 +1121,23 @@ public class HybridConnectionListener implements RelayTraceSource, AutoCloseable
 
 				// Build the websocket uri, e.g.
 				// "wss://contoso.servicebus.windows.net:443/$hc/endpoint1?sb-hc-action=listen&sb-hc-id=E2E_TRACKING_ID"
-				URI websocketUri = HybridConnectionUtil.buildUri(this.address.getHost(), this.address.getPort(),
-							this.address.getPath(), this.address.getQuery(), HybridConnectionConstants.Actions.LISTEN,
-							trackingId);
+				URI websocketUri = HybridConnectionUtil.buildUri(this.address, this.listener.endpointOverride, 
+							HybridConnectionConstants.Actions.LISTEN, trackingId);
 
-				ClientWebSocket webSocket = new ClientWebSocket(this.listener.trackingContext, EXECUTOR);
-				return delayTask.thenCompose(($void) -> {
+				ClientWebSocket webSocket = new ClientWebSocket(this.listener.trackingContext, this.listener.executor);
+				webSocket.setBufferPool(this.listener.bufferPool);
+				// The token is fetched while the reconnect delay elapses, neither blocks the calling thread
+				return delayTask.thenCombine(tokenTask, ($void, token) -> token).thenCompose((token) -> {
 	                if (this.listener.injectedFault != null && this.listener.injectedFault instanceof UpgradeException) {
 	                    return CompletableFutureUtil.fromException(this.listener.injectedFault);
 	                }
+
+					// Set the authentication in request header
+					Map<String, List<String>> headers = new HashMap<String, List<String>>();
+					headers.put(RelayConstants.SERVICEBUS_AUTHORIZATION_HEADER_NAME, Arrays.asList(token.getToken()));
+					HybridConnectionEndpointConfigurator configurator = new HybridConnectionEndpointConfigurator();
+					configurator.addHeaders(headers);
+					ClientEndpointConfig config = ClientEndpointConfig.Builder.create().configurator(configurator).build();
 	                
 					return webSocket.connectAsync(websocketUri, timeout, config)
 						.thenApply(($void2) -> {
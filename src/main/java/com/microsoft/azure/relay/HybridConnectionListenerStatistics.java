@@ -0,0 +1,256 @@
+package com.microsoft.azure.relay;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing the activity of a {@link HybridConnectionListener}, for monitoring purposes.
+ * The values are updated live and may change between calls.
+ */
+public final class HybridConnectionListenerStatistics {
+	private final AtomicLong tokenRenewals = new AtomicLong();
+	private final AtomicLong tokenRenewalFailures = new AtomicLong();
+	private volatile Instant lastTokenRenewal;
+	private volatile Instant nextTokenRenewal;
+	private volatile Instant tokenExpiresAt;
+	private volatile ScheduledExecutorService executor = HybridConnectionListener.EXECUTOR;
+	private final AtomicLong requestsAdmitted = new AtomicLong();
+	private final AtomicLong requestsQueued = new AtomicLong();
+	private final AtomicLong requestsRejected = new AtomicLong();
+	private final AtomicInteger requestsInFlight = new AtomicInteger();
+	private volatile AsyncSemaphore requestLimiter;
+	private final AtomicInteger acceptBacklogDepth = new AtomicInteger();
+	private final AtomicLong acceptsRejected = new AtomicLong();
+	private final LatencyHistogram acceptLatency = new LatencyHistogram();
+	private volatile AsyncSemaphore rendezvousLimiter;
+	private final AtomicLong responsesOverControl = new AtomicLong();
+	private final AtomicLong responsesOverRendezvous = new AtomicLong();
+
+	HybridConnectionListenerStatistics() { }
+
+	/**
+	 * @return The number of times the listener token was renewed successfully.
+	 */
+	public long getTokenRenewals() {
+		return this.tokenRenewals.get();
+	}
+
+	/**
+	 * @return The number of times renewing the listener token failed.
+	 */
+	public long getTokenRenewalFailures() {
+		return this.tokenRenewalFailures.get();
+	}
+
+	/**
+	 * @return When the listener token was last renewed, or null if it has not been renewed yet.
+	 */
+	public Instant getLastTokenRenewal() {
+		return this.lastTokenRenewal;
+	}
+
+	/**
+	 * @return When the listener token is scheduled to be renewed next, or null if no renewal is scheduled.
+	 */
+	public Instant getNextTokenRenewal() {
+		return this.nextTokenRenewal;
+	}
+
+	/**
+	 * @return When the current listener token expires, or null if the listener has not acquired a token yet.
+	 */
+	public Instant getTokenExpiresAt() {
+		return this.tokenExpiresAt;
+	}
+
+	void onTokenAcquired(SecurityToken token) {
+		this.tokenExpiresAt = token.getExpiresAtUtc();
+	}
+
+	void onTokenRenewed() {
+		this.tokenRenewals.incrementAndGet();
+		this.lastTokenRenewal = Instant.now();
+	}
+
+	void onTokenRenewalFailed() {
+		this.tokenRenewalFailures.incrementAndGet();
+	}
+
+	void onTokenRenewalScheduled(Instant nextTokenRenewal) {
+		this.nextTokenRenewal = nextTokenRenewal;
+	}
+
+	/**
+	 * @return The number of threads in the pool of the listener executor, or -1 if the executor is not a thread pool.
+	 */
+	public int getExecutorPoolSize() {
+		ScheduledExecutorService executor = this.executor;
+		if (executor instanceof AutoShutdownScheduledExecutor) {
+			return ((AutoShutdownScheduledExecutor) executor).getPoolSize();
+		}
+		return (executor instanceof ThreadPoolExecutor) ? ((ThreadPoolExecutor) executor).getPoolSize() : -1;
+	}
+
+	/**
+	 * @return The number of tasks waiting in the listener executor, including the ones scheduled for later, 
+	 *         or -1 if the executor is not a thread pool.
+	 */
+	public int getExecutorQueueDepth() {
+		ScheduledExecutorService executor = this.executor;
+		if (executor instanceof AutoShutdownScheduledExecutor) {
+			return ((AutoShutdownScheduledExecutor) executor).getQueueDepth();
+		}
+		return (executor instanceof ThreadPoolExecutor) ? ((ThreadPoolExecutor) executor).getQueue().size() : -1;
+	}
+
+	/**
+	 * @return The average time tasks of the shared executor waited for a thread after they were submitted or due,
+	 *         or null if the listener was given its own executor.
+	 */
+	public Duration getExecutorAverageTaskLatency() {
+		ScheduledExecutorService executor = this.executor;
+		return (executor instanceof AutoShutdownScheduledExecutor) ? ((AutoShutdownScheduledExecutor) executor).getAverageTaskLatency() : null;
+	}
+
+	/**
+	 * @return The longest time a task of the shared executor waited for a thread after it was submitted or due,
+	 *         or null if the listener was given its own executor.
+	 */
+	public Duration getExecutorMaxTaskLatency() {
+		ScheduledExecutorService executor = this.executor;
+		return (executor instanceof AutoShutdownScheduledExecutor) ? ((AutoShutdownScheduledExecutor) executor).getMaxTaskLatency() : null;
+	}
+
+	void setExecutor(ScheduledExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @return The number of HTTP requests which were let through to the request handler.
+	 */
+	public long getRequestsAdmitted() {
+		return this.requestsAdmitted.get();
+	}
+
+	/**
+	 * @return The number of HTTP requests which had to wait for others to finish before they were let through or rejected.
+	 */
+	public long getRequestsQueued() {
+		return this.requestsQueued.get();
+	}
+
+	/**
+	 * @return The number of HTTP requests which were answered with 503 because the listener was at its limit.
+	 */
+	public long getRequestsRejected() {
+		return this.requestsRejected.get();
+	}
+
+	/**
+	 * @return The number of admitted HTTP requests whose response is not closed yet.
+	 */
+	public int getRequestsInFlight() {
+		return this.requestsInFlight.get();
+	}
+
+	/**
+	 * @return The number of HTTP requests currently waiting for others to finish.
+	 */
+	public int getRequestQueueLength() {
+		AsyncSemaphore requestLimiter = this.requestLimiter;
+		return (requestLimiter != null) ? requestLimiter.getQueueLength() : 0;
+	}
+
+	void onRequestQueued() {
+		this.requestsQueued.incrementAndGet();
+	}
+
+	void onRequestAdmitted() {
+		this.requestsAdmitted.incrementAndGet();
+		this.requestsInFlight.incrementAndGet();
+	}
+
+	void onRequestFinished() {
+		this.requestsInFlight.decrementAndGet();
+	}
+
+	void onRequestRejected() {
+		this.requestsRejected.incrementAndGet();
+	}
+
+	void setRequestLimiter(AsyncSemaphore requestLimiter) {
+		this.requestLimiter = requestLimiter;
+	}
+
+	/**
+	 * @return The number of accepted connections which are being connected or wait for acceptConnectionAsync.
+	 */
+	public int getAcceptBacklogDepth() {
+		return this.acceptBacklogDepth.get();
+	}
+
+	/**
+	 * @return The number of connections which were rejected with 503 because the accept backlog was full.
+	 */
+	public long getAcceptsRejected() {
+		return this.acceptsRejected.get();
+	}
+
+	/**
+	 * @return The time from receiving the accept command of each connection until it was ready for acceptConnectionAsync.
+	 */
+	public LatencyHistogram getAcceptLatency() {
+		return this.acceptLatency;
+	}
+
+	/**
+	 * @return The number of rendezvous connections currently waiting for their turn under the limit of concurrent rendezvous.
+	 */
+	public int getRendezvousQueueLength() {
+		AsyncSemaphore rendezvousLimiter = this.rendezvousLimiter;
+		return (rendezvousLimiter != null) ? rendezvousLimiter.getQueueLength() : 0;
+	}
+
+	void setRendezvousLimiter(AsyncSemaphore rendezvousLimiter) {
+		this.rendezvousLimiter = rendezvousLimiter;
+	}
+
+	int onAcceptBacklogEntered() {
+		return this.acceptBacklogDepth.incrementAndGet();
+	}
+
+	void onAcceptBacklogLeft() {
+		this.acceptBacklogDepth.decrementAndGet();
+	}
+
+	void onAcceptRejected() {
+		this.acceptsRejected.incrementAndGet();
+	}
+
+	/**
+	 * @return The number of HTTP responses which were sent with their body, if any, over the control connection.
+	 */
+	public long getResponsesOverControl() {
+		return this.responsesOverControl.get();
+	}
+
+	/**
+	 * @return The number of HTTP responses which were sent over a rendezvous connection, because the request came
+	 *         over one or the response body outgrew the control connection or its flush timeout.
+	 */
+	public long getResponsesOverRendezvous() {
+		return this.responsesOverRendezvous.get();
+	}
+
+	void onResponseSentOverControl() {
+		this.responsesOverControl.incrementAndGet();
+	}
+
+	void onResponseSentOverRendezvous() {
+		this.responsesOverRendezvous.incrementAndGet();
+	}
+}
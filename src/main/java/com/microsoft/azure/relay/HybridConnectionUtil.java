@@ -51,13 +51,48 @@ final class HybridConnectionUtil {
 	 * @throws URISyntaxException
 	 */
 	static URI buildUri(String host, int port, String path, String query, String action, String id) throws URISyntaxException {
+		return buildUri(HybridConnectionConstants.SECURE_WEBSOCKET_SCHEME, host, port, path, query, action, id);
+	}
+
+	/**
+	 * Build the websocket uri for use with HybridConnection WebSockets with the given scheme.
+	 * 
+	 * @param scheme The websocket scheme (ws|wss).
+	 * @param host   The host name (required).
+	 * @param port   The port (-1 is allowed).
+	 * @param path   The hybridConnection path.
+	 * @param query  An optional query string.
+	 * @param action The action (listen|connect|accept).
+	 * @param id     The tracking id.
+	 * @return A Uri to be used for HybridConnection WebSockets.
+	 * @throws URISyntaxException
+	 */
+	static URI buildUri(String scheme, String host, int port, String path, String query, String action, String id) throws URISyntaxException {
 		if (path.charAt(0) != '/') {
 			path = "/" + path;
 		}
 
 		query = buildQueryString(query, action, id);
-		return new URI(HybridConnectionConstants.SECURE_WEBSOCKET_SCHEME, null, host, port,
-				HybridConnectionConstants.HYBRIDCONNECTION_REQUEST_URI + path, query, null);
+		return new URI(scheme, null, host, port, HybridConnectionConstants.HYBRIDCONNECTION_REQUEST_URI + path, query, null);
+	}
+
+	/**
+	 * Build the websocket uri for the HybridConnection at the given address. When an endpoint override is given,
+	 * its scheme, host and port are used in place of the secure websocket scheme and the host and port of the address.
+	 * 
+	 * @param address          The address of the HybridConnection.
+	 * @param endpointOverride The endpoint to connect to instead of the address host, may be null.
+	 * @param action           The action (listen|connect|accept).
+	 * @param id               The tracking id.
+	 * @return A Uri to be used for HybridConnection WebSockets.
+	 * @throws URISyntaxException
+	 */
+	static URI buildUri(URI address, URI endpointOverride, String action, String id) throws URISyntaxException {
+		if (endpointOverride != null) {
+			return buildUri(endpointOverride.getScheme(), endpointOverride.getHost(), endpointOverride.getPort(), 
+				address.getPath(), address.getQuery(), action, id);
+		}
+		return buildUri(address.getHost(), address.getPort(), address.getPath(), address.getQuery(), action, id);
 	}
 
 	/**
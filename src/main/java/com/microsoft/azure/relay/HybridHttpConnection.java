@@ -1,18 +1,27 @@
 package com.microsoft.azure.relay;
 
-import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import javax.websocket.CloseReason;
 import javax.websocket.CloseReason.CloseCodes;
 
@@ -20,8 +29,11 @@ import org.eclipse.jetty.http.HttpStatus;
 import org.json.JSONObject;
 
 class HybridHttpConnection implements RelayTraceSource {
-	private static final int MAX_CONTROL_CONNECTION_BODY_SIZE = 64 * 1024;
-	private final AutoShutdownScheduledExecutor executor;
+	// The size of the chunks a response body is read in when it goes to the rendezvous connection, one websocket frame
+	private static final int RENDEZVOUS_CHUNK_SIZE = 64 * 1024;
+	// The size of the buffer a response body starts out in while it may still go over the control connection
+	private static final int INITIAL_WRITE_BUFFER_SIZE = 1024;
+	private final ScheduledExecutorService executor;
 	private final HybridConnectionListener listener;
 	private final ClientWebSocket controlWebSocket;
 	private final URI rendezvousAddress;
@@ -29,13 +41,16 @@ class HybridHttpConnection implements RelayTraceSource {
 	private TrackingContext trackingContext;
 	private ListenerCommand.RequestCommand requestCommand;
 	private String cachedString;
+	private volatile AsyncSemaphore.LockRelease admission;
+	private volatile ScheduledFuture<?> finishDeadline;
+	private final AtomicBoolean finished = new AtomicBoolean();
 
 	private enum FlushReason {
 		BUFFER_FULL, RENDEZVOUS_EXISTS, TIMER
 	}
 	
 	private HybridHttpConnection(HybridConnectionListener listener, ClientWebSocket controlWebSocket,
-			String rendezvousAddress, AutoShutdownScheduledExecutor executor) throws URISyntaxException {
+			String rendezvousAddress, ScheduledExecutorService executor) throws URISyntaxException {
 		this.executor = executor;
 		this.listener = listener;
 		this.controlWebSocket = controlWebSocket;
@@ -58,11 +73,14 @@ class HybridHttpConnection implements RelayTraceSource {
 		
 		HybridHttpConnection hybridHttpConnection;
 		try {
-			hybridHttpConnection = new HybridHttpConnection(listener, controlWebSocket, requestCommand.getAddress(), HybridConnectionListener.EXECUTOR);
+			hybridHttpConnection = new HybridHttpConnection(listener, controlWebSocket, requestCommand.getAddress(), listener.getExecutor());
 		} catch (URISyntaxException e) {
 			return CompletableFutureUtil.fromException(e);
 		}
 
+		// Decide on the request as it arrives, so that the requests waiting for their turn keep their order
+		CompletableFuture<AsyncSemaphore.LockRelease> admitTask = listener.admitRequestAsync();
+
 		// Do only what we need to do (receive any request body from control channel) and then let this Task complete.
 		Boolean requestOverControlConnection = requestCommand.hasBody();
 		CompletableFuture<RequestCommandAndStream> requestAndStreamFuture;
@@ -72,10 +90,74 @@ class HybridHttpConnection implements RelayTraceSource {
 		    requestAndStreamFuture = CompletableFuture.completedFuture(new RequestCommandAndStream(requestCommand, null));
 		}
 
+		if (admitTask == null) {
+			// The body on the control connection still has to be read before the response goes out
+			return requestAndStreamFuture.thenComposeAsync(requestAndStream -> {
+				return hybridHttpConnection.rejectAsync(requestCommand);
+			}, listener.getExecutor());
+		}
+
 		// ProcessFirstRequestAsync runs without blocking the listener control connection:
-		return requestAndStreamFuture.thenComposeAsync(requestAndStream -> {
-		    return hybridHttpConnection.processFirstRequestAsync(requestAndStream);
-		}, HybridConnectionListener.EXECUTOR);
+		return requestAndStreamFuture.thenCompose(requestAndStream -> {
+			return admitTask.handle((lockRelease, ex) -> {
+				hybridHttpConnection.admission = lockRelease;
+				return ex;
+			})
+			.thenComposeAsync(ex -> {
+				if (ex != null) {
+					return hybridHttpConnection.rejectAsync(requestCommand);
+				}
+				return hybridHttpConnection.processFirstRequestAsync(requestAndStream)
+					.whenComplete(($void, processException) -> {
+						if (processException != null) {
+							hybridHttpConnection.onRequestFinished();
+						} else {
+							hybridHttpConnection.scheduleFinishDeadline();
+						}
+					});
+			}, listener.getExecutor());
+		});
+	}
+
+	// Answers the request with 503 over the control connection without running the request handler
+	private CompletableFuture<Void> rejectAsync(ListenerCommand.RequestCommand requestCommand) {
+		RelayLogger.logEvent("httpRequestRejected", this, String.valueOf(this.listener.getStatistics().getRequestsInFlight()));
+		ListenerCommand.ResponseCommand responseCommand = new ListenerCommand(null).new ResponseCommand();
+		responseCommand.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE_503);
+		responseCommand.setStatusDescription("The listener is at its limit of concurrent requests.");
+		responseCommand.setRequestId(requestCommand.getId());
+		return this.sendResponseAsync(responseCommand, null, this.getOperationTimeout());
+	}
+
+	// A handler may return and close the response later, but one which never closes it must not keep its admission
+	private void scheduleFinishDeadline() {
+		if (this.finished.get()) {
+			return;
+		}
+
+		Duration timeout = this.getOperationTimeout();
+		this.finishDeadline = this.executor.schedule(() -> {
+			if (!this.finished.get()) {
+				RelayLogger.logEvent("httpRequestAbandoned", this, timeout.toString());
+				this.onRequestFinished();
+			}
+		}, timeout.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	// Gives the admission of the request back once its response is closed, it failed, or its handler returned the
+	// operation timeout ago without closing the response, whichever comes first
+	private void onRequestFinished() {
+		if (this.finished.compareAndSet(false, true)) {
+			ScheduledFuture<?> finishDeadline = this.finishDeadline;
+			if (finishDeadline != null) {
+				finishDeadline.cancel(false);
+			}
+			AsyncSemaphore.LockRelease admission = this.admission;
+			if (admission != null) {
+				admission.release();
+			}
+			this.listener.getStatistics().onRequestFinished();
+		}
 	}
 
     @Override
@@ -102,14 +184,17 @@ class HybridHttpConnection implements RelayTraceSource {
 	private CompletableFuture<Void> processFirstRequestAsync(RequestCommandAndStream requestAndStream) {
 		CompletableFuture<Void> processTask = new CompletableFuture<Void>();
 		ListenerCommand.RequestCommand requestCommand = requestAndStream.getRequestCommand();
+		Executor handlerExecutor = this.listener.getHandlerExecutor();
 
 		if (requestCommand.hasBody() == null) {
 			// Need to rendezvous to get the real RequestCommand
-			processTask = this.receiveRequestOverRendezvousAsync().thenAccept((realRequestAndStream) -> {
-				this.invokeRequestHandler(realRequestAndStream);
-			});
+			// Like the control connection case, run the handler off the websocket thread which received the request,
+			// because that thread has to read the close handshake when the handler closes the response.
+			CompletableFuture<RequestCommandAndStream> rendezvousTask = this.receiveRequestOverRendezvousAsync();
+			processTask = rendezvousTask.thenComposeAsync(realRequestAndStream -> this.invokeRequestHandler(realRequestAndStream), handlerExecutor);
 		} else {
-			processTask = CompletableFuture.runAsync(() -> this.invokeRequestHandler(requestAndStream));
+			CompletableFuture<RequestCommandAndStream> receivedTask = CompletableFuture.completedFuture(requestAndStream);
+			processTask = receivedTask.thenComposeAsync(receivedRequestAndStream -> this.invokeRequestHandler(receivedRequestAndStream), handlerExecutor);
 		}
 		
 		return processTask.handle((result, ex) -> {
@@ -125,36 +210,36 @@ class HybridHttpConnection implements RelayTraceSource {
 
 	private CompletableFuture<RequestCommandAndStream> receiveRequestBodyOverControlAsync(
 			ListenerCommand.RequestCommand requestCommand) {
-		ByteArrayInputStream requestStream = null;
-
+		// A body on the control connection is small enough to be received in full before the handler runs
 		if (requestCommand.hasBody()) {
-			return this.controlWebSocket.readBinaryAsync().thenApply((receivedData) -> {
-				return new RequestCommandAndStream(requestCommand, new ByteArrayInputStream(receivedData.array()));
+			return this.controlWebSocket.readBinaryBuffersAsync(null).thenApply((receivedData) -> {
+				return new RequestCommandAndStream(requestCommand, new RequestBodyStream(receivedData));
 			});
 		}
 
-		return CompletableFuture.completedFuture(new RequestCommandAndStream(requestCommand, requestStream));
+		return CompletableFuture.completedFuture(new RequestCommandAndStream(requestCommand, null));
 	}
 
 	private CompletableFuture<RequestCommandAndStream> receiveRequestOverRendezvousAsync() throws CompletionException {
 
 		return this.ensureRendezvousAsync(this.getOperationTimeout())
 			.thenCompose(rendezvousResult -> this.rendezvousWebSocket.readTextAsync())
-			.thenCompose(commandJson -> {
+			.thenApply(commandJson -> {
 				JSONObject jsonObj = new JSONObject(commandJson);
 				this.requestCommand = new ListenerCommand(jsonObj).getRequest();
-	
+				RequestBodyStream requestStream = null;
+
+				// The handler runs as soon as the request command is here and reads the body as it arrives
 				if (this.requestCommand != null && this.requestCommand.hasBody()) {
 					RelayLogger.logEvent("httpReadRendezvous", this, "request body");
-					return this.rendezvousWebSocket.readBinaryAsync();
+					requestStream = new RequestBodyStream(this.rendezvousWebSocket, this.getOperationTimeout());
 				}
-	
-				return CompletableFuture.completedFuture(null);
-			})
-			.thenApply(buffer -> new RequestCommandAndStream(this.requestCommand, new ByteArrayInputStream(buffer.array())));
+				return new RequestCommandAndStream(this.requestCommand, requestStream);
+			});
 	}
 
-	void invokeRequestHandler(RequestCommandAndStream requestAndStream) {
+	// Completes once the handler returned, or once the response the listener sends in its place was sent
+	CompletableFuture<Void> invokeRequestHandler(RequestCommandAndStream requestAndStream) {
 		ListenerCommand.RequestCommand requestCommand = requestAndStream.getRequestCommand();
 		URI listenerAddress = this.listener.getAddress();
 		String requestTarget = requestCommand.getRequestTarget();
@@ -178,7 +263,7 @@ class HybridHttpConnection implements RelayTraceSource {
 
 		RelayLogger.logEvent("httpRequestReceived", this, requestCommand.getMethod());
 		
-		ByteArrayInputStream requestStream = requestAndStream.getStream();
+		RequestBodyStream requestStream = requestAndStream.getStream();
 		if (requestStream != null) {
 			listenerContext.getRequest().setHasEntityBody(true);
 			listenerContext.getRequest().setInputStream(requestStream);
@@ -194,14 +279,14 @@ class HybridHttpConnection implements RelayTraceSource {
 				listenerContext.getResponse().setStatusCode(HttpStatus.INTERNAL_SERVER_ERROR_500);
                 listenerContext.getResponse().setStatusDescription(
                 		"The listener RequestHandler threw an exception. See listener logs for more details.");
-				listenerContext.getResponse().close();
-				return;
+				return listenerContext.getResponse().closeAsync();
 			}
+			return CompletableFuture.completedFuture(null);
 		} else {
 			RelayLogger.logEvent("httpMissingRequestHandler", this);
 			listenerContext.getResponse().setStatusCode(HttpStatus.NOT_IMPLEMENTED_501);
             listenerContext.getResponse().setStatusDescription("The listener RequestHandler has not been configured.");
-			listenerContext.getResponse().close();
+			return listenerContext.getResponse().closeAsync();
 		}
 	}
 
@@ -212,7 +297,10 @@ class HybridHttpConnection implements RelayTraceSource {
 			ListenerCommand listenerCommand = new ListenerCommand(null);
 			listenerCommand.setResponse(responseCommand);
 			return this.listener.sendControlCommandAndStreamAsync(listenerCommand, responseBodyBuffer, timeout)
-					.thenRun(() -> RelayLogger.logEvent("httpSendResponseFinished", this, "control", String.valueOf(responseCommand.getStatusCode())));
+					.thenRun(() -> {
+						this.listener.getStatistics().onResponseSentOverControl();
+						RelayLogger.logEvent("httpSendResponseFinished", this, "control", String.valueOf(responseCommand.getStatusCode()));
+					});
 		} else {
 			TimeoutHelper timeRemaining = new TimeoutHelper(timeout);
 			RelayLogger.logEvent("httpSendResponse", this, "rendezvous", String.valueOf(responseCommand.getStatusCode()));
@@ -225,13 +313,14 @@ class HybridHttpConnection implements RelayTraceSource {
 			CompletableFuture<Void> sendCommandTask = this.ensureRendezvousAsync(timeRemaining.remainingTime())
 				.thenCompose($void -> this.rendezvousWebSocket.writeAsync(command, timeRemaining.remainingTime(), true, WriteMode.TEXT))
 				.thenAccept(bytesWritten -> {
+					this.listener.getStatistics().onResponseSentOverRendezvous();
 					RelayLogger.logEvent("httpSendResponseFinished", this, "rendezvous", String.valueOf(responseCommand.getStatusCode()));
 				});
 			
 			if (responseCommand.hasBody() && responseBodyBuffer != null) {
 				return sendCommandTask.thenCompose($void -> {
 					int bytesToWrite = responseBodyBuffer.remaining();
-					return sendBytesOverRendezvousAsync(responseBodyBuffer, timeRemaining.remainingTime())
+					return sendBytesOverRendezvousAsync(responseBodyBuffer, timeRemaining.remainingTime(), false)
 						.thenRun(() -> {
 							RelayLogger.logEvent("httpSendingBytes", this, String.valueOf(bytesToWrite));
 						});
@@ -241,12 +330,21 @@ class HybridHttpConnection implements RelayTraceSource {
 		}
 	}
 
-	private CompletableFuture<Void> sendBytesOverRendezvousAsync(ByteBuffer buffer, Duration timeout) {
+	/**
+	 * Sends the bytes over the rendezvous connection as part of the response body.
+	 * 
+	 * @param buffer The bytes to be sent, nothing is sent if null.
+	 * @param timeout The timeout to send the bytes within.
+	 * @param copyData True if the buffer is owned by the caller and has to be copied before sending, false if it is 
+	 * an internal buffer whose content may be consumed by the websocket in place.
+	 */
+	private CompletableFuture<Void> sendBytesOverRendezvousAsync(ByteBuffer buffer, Duration timeout, boolean copyData) {
 		if (buffer == null) {
 			return CompletableFuture.completedFuture(null);
 		}
-		return this.rendezvousWebSocket.writeAsync(buffer, timeout, false, WriteMode.BINARY).thenAccept(nullResult -> {
-			RelayLogger.logEvent("httpSendingBytes", this, String.valueOf(buffer.remaining()));
+		int bytesToSend = buffer.remaining();
+		return this.rendezvousWebSocket.writeAsync(buffer, timeout, false, WriteMode.BINARY, copyData).thenAccept(nullResult -> {
+			RelayLogger.logEvent("httpSendingBytes", this, String.valueOf(bytesToSend));
 		});
 	}
 
@@ -254,6 +352,9 @@ class HybridHttpConnection implements RelayTraceSource {
 		if (this.rendezvousWebSocket == null) {
 			RelayLogger.logEvent("httpCreateRendezvous", this);
 			this.rendezvousWebSocket = new ClientWebSocket(this.trackingContext, this.executor);
+			this.rendezvousWebSocket.setBufferPool(this.listener.getBufferPool());
+			this.rendezvousWebSocket.setMaxBufferedBytes(this.listener.getMaxBufferedBytes());
+			this.rendezvousWebSocket.setMaxBufferedFragments(this.listener.getMaxBufferedFragments());
 			return this.rendezvousWebSocket.connectAsync(this.rendezvousAddress, timeout);
 		}
 		return CompletableFuture.completedFuture(null);
@@ -284,23 +385,28 @@ class HybridHttpConnection implements RelayTraceSource {
 	}
 
 	public final class ResponseStream extends OutputStream {
-		static final long WRITE_BUFFER_FLUSH_TIMEOUT_MILLIS = 2000;
 		private final HybridHttpConnection connection;
 		private final RelayedHttpListenerContext context;
 		private final AsyncLock asyncLock;
 		private boolean closed;
 		private ByteBuffer writeBufferStream;
-		private Timer writeBufferFlushTimer;
+		private ScheduledFuture<?> writeBufferFlushTimer;
 		private boolean responseCommandSent;
 		private final TrackingContext trackingContext;
 		private Duration writeTimeout;
+		private final int maxControlBodySize;
+		private final Duration flushTimeout;
+		private final BufferPool bufferPool;
 
 		ResponseStream(HybridHttpConnection connection, RelayedHttpListenerContext context) {
 			this.connection = connection;
 			this.context = context;
 			this.trackingContext = context.getTrackingContext();
+			this.maxControlBodySize = connection.listener.getMaxControlResponseBodySize();
+			this.flushTimeout = connection.listener.getResponseFlushTimeout();
+			this.bufferPool = connection.listener.getBufferPool();
 			this.writeTimeout = this.connection.getOperationTimeout();
-			this.asyncLock = new AsyncLock(HybridConnectionListener.EXECUTOR);
+			this.asyncLock = new AsyncLock(connection.executor);
 		}
 		
 		public TrackingContext getTrackingContext() {
@@ -336,7 +442,7 @@ class HybridHttpConnection implements RelayTraceSource {
 				CompletableFuture<Void> sendResponseTask = this.connection.ensureRendezvousAsync(timeoutHelper.remainingTime())
 						.thenComposeAsync($void -> {
 							return this.connection.sendResponseAsync(responseCommand, null, timeoutHelper.remainingTime());
-						})
+						}, this.connection.executor)
 						.thenRun(() -> this.responseCommandSent = true);
 
 				// When there is no request message body
@@ -344,13 +450,11 @@ class HybridHttpConnection implements RelayTraceSource {
 					return sendResponseTask.thenCompose($void -> {
 						// Get a new buffer backed by the non empty segment of the write buffer array
 						this.writeBufferStream.flip();
-						return this.connection.sendBytesOverRendezvousAsync(this.writeBufferStream, timeoutHelper.remainingTime());
+						return this.connection.sendBytesOverRendezvousAsync(this.writeBufferStream, timeoutHelper.remainingTime(), false);
 					})
 					.thenRun(() -> {
-						this.writeBufferStream.clear();
-						if (this.writeBufferFlushTimer != null) {
-							this.writeBufferFlushTimer.cancel();
-						}
+						this.releaseWriteBuffer();
+						this.cancelWriteBufferFlushTimer();
 					});
 				}
 				return sendResponseTask;
@@ -375,10 +479,14 @@ class HybridHttpConnection implements RelayTraceSource {
 		}
 		
 		/**
-		 * Writes len bytes from the specified byte array starting at offset off to this response stream.
+		 * Writes len bytes from the specified byte array starting at offset off to this response stream, and waits
+		 * until they were written. The write is done by the listener executor, so this must not be called on one of
+		 * its threads, for example in a continuation of writeAsync. On the executor shared by the listeners it throws
+		 * IllegalStateException, use writeAsync there instead.
 		 */
 		@Override
 		public void write(byte[] b, int off, int len) throws IOException {
+			this.throwIfOnExecutorThread();
 			try {
 				this.writeAsync(b, off, len).join();
 			} catch (CompletionException e) {
@@ -390,6 +498,20 @@ class HybridHttpConnection implements RelayTraceSource {
 		 * Writes len bytes from the specified byte array starting at offset off to this response stream concurrently.
 		 */
 		public CompletableFuture<Void> writeAsync(byte[] b, int off, int len) {
+			return this.writeAsync(ByteBuffer.wrap(b, off, len));
+		}
+
+		/**
+		 * Writes the remaining bytes of the buffer to this response stream without blocking. The position of the
+		 * buffer is left unchanged, and the buffer may be reused once the returned future completes.
+		 */
+		public CompletableFuture<Void> writeAsync(ByteBuffer buffer) {
+			ByteBuffer data = buffer.duplicate();
+			int len = data.remaining();
+			if (len == 0) {
+				// An empty frame in the middle of the response body would carry nothing
+				return CompletableFuture.completedFuture(null);
+			}
 			RelayLogger.logEvent("httpResponseStreamWrite", this, String.valueOf(len));
 			this.context.getResponse().setReadonly();
 			return this.asyncLock.acquireThenCompose(this.writeTimeout, () -> {
@@ -401,23 +523,16 @@ class HybridHttpConnection implements RelayTraceSource {
 						flushReason = FlushReason.RENDEZVOUS_EXISTS;
 					} else {
 						int bufferedCount = this.writeBufferStream != null ? this.writeBufferStream.position() : 0;
-						if (len + bufferedCount <= MAX_CONTROL_CONNECTION_BODY_SIZE) {
+						if (len + bufferedCount <= this.maxControlBodySize) {
 
 							// There's still a chance we might be able to respond over the control
 							// connection, accumulate bytes
-							if (this.writeBufferStream == null) {
-								this.writeBufferStream = ByteBuffer.allocate(MAX_CONTROL_CONNECTION_BODY_SIZE);
-								this.writeBufferFlushTimer = new Timer();
-
-								this.writeBufferFlushTimer.schedule(new TimerTask() {
-									@Override
-									public void run() {
-										onWriteBufferFlushTimer();
-									}
-								}, WRITE_BUFFER_FLUSH_TIMEOUT_MILLIS, Long.MAX_VALUE);
-
+							if (this.writeBufferStream == null && this.flushTimeout != null) {
+								this.writeBufferFlushTimer = this.connection.executor.schedule(
+									() -> onWriteBufferFlushTimer(), this.flushTimeout.toMillis(), TimeUnit.MILLISECONDS);
 							}
-							this.writeBufferStream.put(b, off, len);
+							this.ensureWriteBufferCapacity(bufferedCount + len);
+							this.writeBufferStream.put(data);
 							return CompletableFuture.completedFuture(null);
 						}
 						flushReason = FlushReason.BUFFER_FULL;
@@ -428,24 +543,148 @@ class HybridHttpConnection implements RelayTraceSource {
 					flushCoreTask = this.flushCoreAsync(flushReason, this.writeTimeout);
 				}
 
-				ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
 				if (flushCoreTask == null) {
 					flushCoreTask = CompletableFuture.completedFuture(null);
 				}
 
 				return flushCoreTask.thenCompose(result -> {
-					return this.connection.sendBytesOverRendezvousAsync(buffer, this.writeTimeout);
+					return this.connection.sendBytesOverRendezvousAsync(data, this.writeTimeout, true);
+				});
+			});
+		}
+
+		/**
+		 * Writes every buffer the source produces to this response stream, asking for the next one once the 
+		 * previous one was written, until the source produces null. For example, a request body can be sent back 
+		 * with writeAllAsync(request.getInputStream()::readAsync). The response is not closed.
+		 * 
+		 * @param source Produces the next buffer to write, or null at the end
+		 * @return A CompletableFuture which completes once everything was written
+		 */
+		public CompletableFuture<Void> writeAllAsync(Supplier<? extends CompletionStage<ByteBuffer>> source) {
+			return source.get().thenComposeAsync(buffer -> {
+				if (buffer == null) {
+					return CompletableFuture.completedFuture(null);
+				}
+				return this.writeAsync(buffer).thenCompose($void -> this.writeAllAsync(source));
+			}, this.connection.executor).toCompletableFuture();
+		}
+
+		/**
+		 * Writes everything read from the channel until its end to this response stream, one chunk at a time. The
+		 * channel is read on the listener executor and is not closed. The response is not closed.
+		 * 
+		 * @param channel The channel to read the bytes to write from
+		 * @return A CompletableFuture which completes once the end of the channel was written
+		 */
+		public CompletableFuture<Void> writeAllAsync(ReadableByteChannel channel) {
+			ByteBuffer chunk = this.bufferPool.acquire(RENDEZVOUS_CHUNK_SIZE);
+			return this.writeAllAsync(() -> CompletableFuture.supplyAsync(() -> {
+				chunk.clear();
+				try {
+					if (channel.read(chunk) < 0) {
+						return null;
+					}
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+				chunk.flip();
+				return chunk;
+			}, this.connection.executor)).thenRun(() -> this.bufferPool.release(chunk));
+		}
+
+		/**
+		 * Writes length bytes of the file starting at offset to this response stream. A range which fits in a
+		 * response over the control connection is buffered like any other write. A larger one is read into two 
+		 * buffers of the buffer pool in turn, each read overlapping the send of the previous chunk, and the chunks are
+		 * handed to the rendezvous connection without copying them again. The reads skip a copy if the pool is direct.
+		 * Other writes wait until the whole range was sent.
+		 */
+		CompletableFuture<Void> writeFileAsync(Path path, long offset, long length) {
+			FileChannel channel;
+			try {
+				channel = FileChannel.open(path, StandardOpenOption.READ);
+				if (offset < 0 || length < 0 || offset > channel.size() - length) {
+					channel.close();
+					throw new IllegalArgumentException("The range of " + length + " bytes at offset " + offset + " is outside of the file.");
+				}
+			} catch (IOException | RuntimeException e) {
+				return CompletableFutureUtil.fromException(RelayLogger.throwingException(e, this));
+			}
+
+			CompletableFuture<Void> writeTask;
+			if (length <= this.maxControlBodySize) {
+				ByteBuffer contents = this.bufferPool.acquire((int) length);
+				writeTask = CompletableFuture.runAsync(() -> readFileChunk(channel, contents, offset, offset + length), this.connection.executor)
+					.thenCompose($void -> this.writeAsync(contents))
+					.thenRun(() -> this.bufferPool.release(contents));
+			} else {
+				RelayLogger.logEvent("httpResponseStreamWrite", this, String.valueOf(length));
+				this.context.getResponse().setReadonly();
+				writeTask = this.asyncLock.acquireThenCompose(this.writeTimeout, () -> {
+					FlushReason flushReason = (this.connection.rendezvousWebSocket != null) ? FlushReason.RENDEZVOUS_EXISTS : FlushReason.BUFFER_FULL;
+					ByteBuffer chunk = this.bufferPool.acquire(RENDEZVOUS_CHUNK_SIZE);
+					ByteBuffer spare = this.bufferPool.acquire(RENDEZVOUS_CHUNK_SIZE);
+					return this.sendFileChunksAsync(channel, offset, offset + length, chunk, spare, this.flushCoreAsync(flushReason, this.writeTimeout))
+						.thenRun(() -> {
+							this.bufferPool.release(chunk);
+							this.bufferPool.release(spare);
+						});
 				});
+			}
+
+			return writeTask.whenComplete(($void, ex) -> {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					RelayLogger.handledExceptionAsWarning(e, this);
+				}
 			});
 		}
 
+		// Reads the chunk at position while the previous chunk, read into spare, is still being sent
+		private CompletableFuture<Void> sendFileChunksAsync(FileChannel channel, long position, long end, ByteBuffer chunk, 
+			ByteBuffer spare, CompletableFuture<Void> previousSendTask) {
+			if (position >= end) {
+				return previousSendTask;
+			}
+
+			return CompletableFuture.runAsync(() -> readFileChunk(channel, chunk, position, end), this.connection.executor)
+				.thenCombine(previousSendTask, ($void1, $void2) -> chunk.remaining())
+				.thenComposeAsync(count -> {
+					CompletableFuture<Void> sendTask = this.connection.sendBytesOverRendezvousAsync(chunk, this.writeTimeout, false);
+					return this.sendFileChunksAsync(channel, position + count, end, spare, chunk, sendTask);
+				}, this.connection.executor);
+		}
+
+		// Fills the buffer with the bytes of the file from position, up to end at most, and flips it
+		private void readFileChunk(FileChannel channel, ByteBuffer buffer, long position, long end) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+			try {
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer, position + buffer.position()) < 0) {
+						throw new EOFException("The file ended before the requested range was read.");
+					}
+				}
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+			buffer.flip();
+		}
+
 		@Override
 		public String toString() {
 			return this.connection.toString() + "+" + "ResponseStream";
 		}
 
+		/**
+		 * Sends the response and waits until it was sent. Like write, this must not be called on a thread of the
+		 * listener executor, use closeAsync there instead.
+		 */
 		@Override
 		public void close() throws IOException {
+			this.throwIfOnExecutorThread();
 			try {
 				this.closeAsync().join();
 			} catch (CompletionException e) {
@@ -471,27 +710,88 @@ class HybridHttpConnection implements RelayTraceSource {
 					// Don't force any rendezvous now
 					sendTask = this.connection.sendResponseAsync(responseCommand, this.writeBufferStream, this.writeTimeout);
 					this.responseCommandSent = true;
-					if (this.writeBufferFlushTimer != null) {
-						this.writeBufferFlushTimer.cancel();
-					}
+					this.cancelWriteBufferFlushTimer();
 				} else {
-					sendTask = this.connection.sendBytesOverRendezvousAsync(null, this.writeTimeout);
+					sendTask = this.connection.sendBytesOverRendezvousAsync(null, this.writeTimeout, false);
 				}
 
 				return sendTask.thenCompose((result) -> {
-					if (this.writeBufferStream != null) {
-						this.writeBufferStream.position(0);
-					}
+					this.releaseWriteBuffer();
 					this.closed = true;
-					return closeRendezvousAsync();
-				});
+					return this.discardRequestBodyAsync();
+				})
+				.thenCompose($void -> closeRendezvousAsync());
+			})
+			.whenComplete(($void, ex) -> this.connection.onRequestFinished());
+		}
+
+		// Waiting on a thread of the executor which has to do the work may wait forever once all its threads wait
+		void throwIfOnExecutorThread() {
+			if (AutoShutdownScheduledExecutor.isExecutorThread()) {
+				throw RelayLogger.throwingException(new IllegalStateException(
+					"Blocking response writes cannot be used on a thread of the listener executor, use the async methods instead."), this);
+			}
+		}
+
+		// A request body the handler left unread would keep the rendezvous connection suspended, so its close 
+		// handshake would never complete. Failing to read it is no reason not to close the connection.
+		private CompletableFuture<Void> discardRequestBodyAsync() {
+			RequestBodyStream requestStream = this.context.getRequest().getInputStream();
+			if (requestStream == null) {
+				return CompletableFuture.completedFuture(null);
+			}
+
+			return requestStream.closeAsync().handle(($void, ex) -> {
+				if (ex != null) {
+					RelayLogger.handledExceptionAsWarning(ex, this);
+				}
+				return null;
 			});
 		}
 
 		CompletableFuture<Void> onWriteBufferFlushTimer() {
 			return this.asyncLock.acquireThenCompose(this.writeTimeout, () -> {
+				// The timer has fired, so there is nothing left to cancel
+				this.writeBufferFlushTimer = null;
 				return this.flushCoreAsync(FlushReason.TIMER, this.writeTimeout);
 			});
 		}
+
+		// Starts small and doubles as needed, since most bodies sent over the control connection are much smaller
+		// than the limit. The caller of this method must have acquired this.asyncLock
+		private void ensureWriteBufferCapacity(int capacity) {
+			int currentCapacity = (this.writeBufferStream != null) ? this.writeBufferStream.limit() : 0;
+			if (capacity <= currentCapacity) {
+				return;
+			}
+
+			int newCapacity = Math.max(currentCapacity, INITIAL_WRITE_BUFFER_SIZE);
+			while (newCapacity < capacity) {
+				newCapacity = (int) Math.min(newCapacity * 2L, this.maxControlBodySize);
+			}
+			ByteBuffer newBuffer = this.bufferPool.acquire(Math.min(newCapacity, this.maxControlBodySize));
+			if (this.writeBufferStream != null) {
+				this.writeBufferStream.flip();
+				newBuffer.put(this.writeBufferStream);
+				this.bufferPool.release(this.writeBufferStream);
+			}
+			this.writeBufferStream = newBuffer;
+		}
+
+		// Gives the write buffer back to the pool once nothing sends from it anymore. A buffer whose send failed is
+		// left to the garbage collector instead, since a timed out send may still be reading from it. The caller of
+		// this method must have acquired this.asyncLock
+		private void releaseWriteBuffer() {
+			this.bufferPool.release(this.writeBufferStream);
+			this.writeBufferStream = null;
+		}
+
+		// The caller of this method must have acquired this.asyncLock
+		private void cancelWriteBufferFlushTimer() {
+			if (this.writeBufferFlushTimer != null) {
+				this.writeBufferFlushTimer.cancel(false);
+				this.writeBufferFlushTimer = null;
+			}
+		}
 	}
 }
@@ -1,128 +1,170 @@
 package com.microsoft.azure.relay;
 
-import java.lang.reflect.Array;
 import java.time.Duration;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+/**
+ * A queue of items for asynchronous readers which doesn't take a lock. The queue state and the balance of items
+ * over readers live in one atomic word: an enqueue which finds readers waiting takes the oldest one, otherwise it
+ * adds its item, and a dequeue does the opposite. Since both decisions are made on the same word, an item and a
+ * reader can never wait for each other.
+ * Readers with a timeout don't get a timer each, one sweep per queue is scheduled for the earliest deadline and
+ * expires all the readers which are due by then.
+ */
 final class InputQueue<T> {
+	private static final int OPEN = 0;
+	private static final int SHUTDOWN = 1;
+	private static final int CLOSED = 2;
+	private static final long NO_SWEEP = Long.MIN_VALUE;
 	private final ScheduledExecutorService executor;
-	private final ItemQueue itemQueue;
-	private final Queue<CompletableFuture<T>> readerQueue;
-	private QueueState queueState;
-	private final Object thisLock = new Object();
-	
+	// A positive balance is the number of items which were added or are about to be added to itemQueue,
+	// a negative one the number of readers in readerQueue which no enqueue is about to take yet.
+	private final AtomicLong stateAndBalance = new AtomicLong(pack(OPEN, 0));
+	private final Queue<Item> itemQueue = new ConcurrentLinkedQueue<Item>();
+	private final Queue<Reader> readerQueue = new ConcurrentLinkedQueue<Reader>();
+	private final AtomicInteger waitingReaders = new AtomicInteger();
+	private final Queue<Reader> timedReaders = new ConcurrentLinkedQueue<Reader>();
+	// The System.nanoTime() at which the next sweep is scheduled, or NO_SWEEP
+	private final AtomicLong nextSweep = new AtomicLong(NO_SWEEP);
+
 	public InputQueue(ScheduledExecutorService executor) {
-		this.executor = executor;		
-		this.itemQueue = new ItemQueue();
-		this.readerQueue = new LinkedList<CompletableFuture<T>>();
-		this.queueState = QueueState.OPEN;
+		this.executor = executor;
 	}
 
 	public int getPendingCount() {
-		synchronized (thisLock) {
-			return this.itemQueue.getTotalCount();
-		}
+		return Math.max(balance(this.stateAndBalance.get()), 0);
 	}
 
 	public int getReadersQueueCount() {
-		synchronized (thisLock) {
-			return this.readerQueue.size();
-		}
+		return this.waitingReaders.get();
+	}
+
+	// The raw balance of items over readers, for tests
+	int getBalance() {
+		return balance(this.stateAndBalance.get());
+	}
+
+	// The number of readers in readerQueue including the ones which timed out, for tests
+	int getQueuedReaderCount() {
+		return this.readerQueue.size();
 	}
 
 	public CompletableFuture<T> dequeueAsync() {
 		return dequeueAsync(null);
 	}
-	
+
 	public CompletableFuture<T> dequeueAsync(Duration timeout) {
-		Item item = null;
+		while (true) {
+			long current = this.stateAndBalance.get();
+			int state = state(current);
+			int balance = balance(current);
 
-		synchronized (thisLock) {
-			if (this.queueState == QueueState.OPEN) {
-				if (itemQueue.hasAvailableItem()) {
-					item = itemQueue.dequeueAvailableItem();
-				} else {
-					return this.createReader(timeout);
-				}
-			} else if (queueState == QueueState.SHUTDOWN) {
-				if (itemQueue.hasAvailableItem()) {
-					item = itemQueue.dequeueAvailableItem();
-				} else if (itemQueue.hasAnyItem()) {
+			if (state == CLOSED || (state == SHUTDOWN && balance <= 0)) {
+				return CompletableFuture.completedFuture(null);
+			}
+
+			if (this.stateAndBalance.compareAndSet(current, pack(state, balance - 1))) {
+				if (balance <= 0) {
 					return this.createReader(timeout);
 				}
-			}
-		}
 
-		invokeDequeuedCallback(item);
-		CompletableFuture<T> future = new CompletableFuture<T>();
-		if (item != null && item.getException()!= null) {
-			future.completeExceptionally(item.getException());
-		} else {
-			future.complete((item != null) ? item.getValue() : null);
+				Item item = take(this.itemQueue);
+				invokeDequeuedCallback(item);
+				return CompletableFuture.completedFuture(item.getValue());
+			}
 		}
-		return future;
 	}
-	
+
 	private CompletableFuture<T> createReader(Duration timeout) {
-		CompletableFuture<T> reader = new CompletableFuture<T>();
+		Reader reader = new Reader();
+		this.waitingReaders.incrementAndGet();
+		// Before the sweep can see it, so that the sweep finds it in readerQueue unless an enqueue took it
+		this.readerQueue.add(reader);
 
 		if (timeout != null) {
-			Future<?> cancelTask = executor.schedule(() -> {
-				if (this.removeReader(reader)) {
-					reader.completeExceptionally(new TimeoutException("This InputQueue item could not complete in time."));
-				}
-			}, timeout.toMillis(), TimeUnit.MILLISECONDS);
-
-			reader.thenRunAsync(() -> cancelTask.cancel(true));
+			long timeoutMillis = Math.min(timeout.toMillis(), RelayConstants.MAX_DURATION.toMillis());
+			reader.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			this.timedReaders.add(reader);
+			this.scheduleSweep(reader.deadline);
 		}
 
-		this.readerQueue.add(reader);
-		return reader;
+		return reader.future;
 	}
 
-	@SuppressWarnings("unchecked")
-	public void dispatch() {
-		CompletableFuture<T> reader = null;
-		CompletableFuture<T>[] outstandingReaders = null;
-		Item item = new Item();
-
-		synchronized (thisLock) {
-			if (this.queueState != QueueState.CLOSED) {
-				this.itemQueue.makePendingItemAvailable();
-
-				if (this.readerQueue.size() > 0) {
-					item = this.itemQueue.dequeueAvailableItem();
-					reader = this.readerQueue.remove();
+	// Makes sure a sweep runs no later than the deadline, a sweep which is already due before stays as it is
+	private void scheduleSweep(long deadline) {
+		while (true) {
+			long scheduled = this.nextSweep.get();
+			if (scheduled != NO_SWEEP && scheduled - deadline <= 0) {
+				return;
+			}
 
-					if (this.queueState == QueueState.SHUTDOWN && this.readerQueue.size() > 0 && itemQueue.getTotalCount() == 0) {
-						outstandingReaders = (CompletableFuture<T>[]) Array.newInstance(CompletableFuture.class, this.readerQueue.size());
+			if (this.nextSweep.compareAndSet(scheduled, deadline)) {
+				executor.schedule(() -> sweep(), Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+				return;
+			}
+		}
+	}
 
-						// manually copy over values because only cloning of primitives are allowed
-						int i = 0;
-						while (!this.readerQueue.isEmpty()) {
-							outstandingReaders[i++] = this.readerQueue.remove();
-						}
-					}
+	private void sweep() {
+		// Readers which are added while sweeping schedule their own sweep
+		this.nextSweep.set(NO_SWEEP);
+		long now = System.nanoTime();
+		long earliest = NO_SWEEP;
+
+		for (Iterator<Reader> readers = this.timedReaders.iterator(); readers.hasNext();) {
+			Reader reader = readers.next();
+			if (reader.claimed.get()) {
+				readers.remove();
+			} else if (reader.deadline - now <= 0) {
+				readers.remove();
+				if (reader.claim()) {
+					this.removeReader(reader);
+					reader.future.completeExceptionally(new TimeoutException("This InputQueue item could not complete in time."));
 				}
+			} else if (earliest == NO_SWEEP || reader.deadline - earliest < 0) {
+				earliest = reader.deadline;
 			}
 		}
 
-		if (outstandingReaders != null) {
-			CompletableFuture<T>[] outstandingReadersRef = outstandingReaders;
-			executor.submit(() -> completeOutstandingReadersCallback(outstandingReadersRef));
+		if (earliest != NO_SWEEP) {
+			this.scheduleSweep(earliest);
 		}
+	}
 
-		if (reader != null) {
-			invokeDequeuedCallback(item);
-			reader.complete(item.getValue());
+	// Takes a reader which timed out out of readerQueue along with its place in the balance, so that readers polling
+	// an idle queue don't pile up until the next enqueue
+	private void removeReader(Reader reader) {
+		if (!this.readerQueue.remove(reader)) {
+			// An enqueue took it already, and skips over it
+			return;
+		}
+
+		while (true) {
+			long current = this.stateAndBalance.get();
+			int state = state(current);
+			int balance = balance(current);
+
+			if (state != OPEN || balance >= 0) {
+				// An enqueue or the shutdown counted on this reader being in readerQueue, it skips over it there
+				this.readerQueue.add(reader);
+				return;
+			}
+
+			if (this.stateAndBalance.compareAndSet(current, pack(state, balance + 1))) {
+				return;
+			}
 		}
 	}
 
@@ -131,10 +173,9 @@ final class InputQueue<T> {
 	}
 
 	// dequeuedCallback is called as an item is dequeued from the InputQueue. The
-	// InputQueue lock is not held during the callback. However, the user code will
-	// not be notified of the item being available until the callback returns. If
-	// you are not sure if the callback will block for a long time, then first call
-	// ActionItem.Schedule to get to a "safe" thread.
+	// user code will not be notified of the item being available until the callback
+	// returns. If you are not sure if the callback will block for a long time, then
+	// pass canDispatchOnThisThread as false to get to a "safe" thread.
 	public void enqueueAndDispatch(T item, Consumer<T> dequeuedCallback) {
 		enqueueAndDispatch(item, dequeuedCallback, true);
 	}
@@ -143,200 +184,153 @@ final class InputQueue<T> {
 		enqueueAndDispatch(new Item(item, dequeuedCallback), canDispatchOnThisThread);
 	}
 
-	public boolean enqueueWithoutDispatch(T item, Consumer<T> dequeuedCallback) {
-		return enqueueWithoutDispatch(new Item(item, dequeuedCallback));
-	}
-
-	public boolean enqueueWithoutDispatch(Exception exception, Consumer<T> dequeuedCallback) {
-		return enqueueWithoutDispatch(new Item(exception, dequeuedCallback));
-	}
-
 	public void shutdown() {
 		this.shutdown(null);
 	}
 
 	// Don't let any more items in. Differs from Close in that we keep around
 	// existing items in our itemQueue for possible future calls to Dequeue
-	@SuppressWarnings("unchecked")
 	public void shutdown(Supplier<Exception> pendingExceptionGenerator) {
-		CompletableFuture<T>[] outstandingReaders = null;
+		while (true) {
+			long current = this.stateAndBalance.get();
+			int balance = balance(current);
 
-		synchronized (thisLock) {
-
-			if (queueState == QueueState.SHUTDOWN || queueState == QueueState.CLOSED) {
+			if (state(current) != OPEN) {
 				return;
 			}
 
-			this.queueState = QueueState.SHUTDOWN;
-			if (this.readerQueue.size() > 0 && this.itemQueue.getTotalCount() == 0) {
-				outstandingReaders = (CompletableFuture<T>[]) Array.newInstance(CompletableFuture.class, readerQueue.size());
-
-				// manually copy over values because only cloning of primitives are allowed
-				int i = 0;
-				while (!this.readerQueue.isEmpty()) {
-					outstandingReaders[i++] = this.readerQueue.remove();
-				}
-			}
-		}
-
-		if (outstandingReaders != null) {
-			for (int i = 0; i < outstandingReaders.length; i++) {
-				Exception exception = (pendingExceptionGenerator != null) ? pendingExceptionGenerator.get() : null;
-				if (exception == null) {
-					outstandingReaders[i].complete(null);
-				} else {
-					outstandingReaders[i].completeExceptionally(exception);
+			if (this.stateAndBalance.compareAndSet(current, pack(SHUTDOWN, Math.max(balance, 0)))) {
+				// Without items the waiting readers will never get one
+				for (int i = balance; i < 0; i++) {
+					Reader reader = take(this.readerQueue);
+					if (reader.claim()) {
+						Exception exception = (pendingExceptionGenerator != null) ? pendingExceptionGenerator.get() : null;
+						if (exception == null) {
+							reader.future.complete(null);
+						} else {
+							reader.future.completeExceptionally(exception);
+						}
+					}
 				}
+				return;
 			}
 		}
 	}
 
 	public void dispose() {
-		boolean dispose = false;
+		while (true) {
+			long current = this.stateAndBalance.get();
+			int balance = balance(current);
 
-		synchronized (thisLock) {
-			if (queueState != QueueState.CLOSED) {
-				queueState = QueueState.CLOSED;
-				dispose = true;
+			if (state(current) == CLOSED) {
+				return;
 			}
-		}
 
-		if (dispose) {
-			while (this.readerQueue.size() > 0) {
-				CompletableFuture<T> reader = this.readerQueue.remove();
-				reader.complete(null);
-			}
+			if (this.stateAndBalance.compareAndSet(current, pack(CLOSED, 0))) {
+				for (int i = balance; i < 0; i++) {
+					Reader reader = take(this.readerQueue);
+					if (reader.claim()) {
+						reader.future.complete(null);
+					}
+				}
 
-			while (itemQueue.hasAnyItem()) {
-				Item item = itemQueue.dequeueAnyItem();
-				invokeDequeuedCallback(item);
-			}
-		}
-	}
+				for (int i = 0; i < balance; i++) {
+					invokeDequeuedCallback(take(this.itemQueue));
+				}
 
-	void completeOutstandingReadersCallback(CompletableFuture<T>[] outstandingReaders) {
-		for (int i = 0; i < outstandingReaders.length; i++) {
-			outstandingReaders[i].complete(null);
+				this.timedReaders.clear();
+				return;
+			}
 		}
 	}
 
 	void invokeDequeuedCallback(Item item) {
 		if (item != null && item.getDequeuedCallback() != null) {
-			item.dequeuedCallback.accept(item.getValueWithException());
+			item.getDequeuedCallback().accept(item.getValue());
 		}
 	}
 
-	void invokeDequeuedCallbackLater(Item item) {
-		if (item != null && item.getDequeuedCallback() != null) {
-			executor.submit(() -> onInvokeDequeuedCallback(item));
-		}
-	}
+	void enqueueAndDispatch(Item item, boolean canDispatchOnThisThread) {
+		while (true) {
+			long current = this.stateAndBalance.get();
+			int state = state(current);
+			int balance = balance(current);
 
-	@SuppressWarnings("unchecked")
-	void onDispatchCallback(Object state) {
-		((InputQueue<T>) state).dispatch();
-	}
+			if (state != OPEN) {
+				invokeDequeuedCallback(item);
+				return;
+			}
 
-	@SuppressWarnings("unchecked")
-	void onInvokeDequeuedCallback(Object state) {
-		Item item = (Item) state;
-		item.getDequeuedCallback().accept(item.getValueWithException());
-	}
+			if (!this.stateAndBalance.compareAndSet(current, pack(state, balance + 1))) {
+				continue;
+			}
 
-	void enqueueAndDispatch(Item item, boolean canDispatchOnThisThread) {
-		boolean disposeItem = false;
-		CompletableFuture<T> reader = null;
-		boolean dispatchLater = false;
+			if (balance >= 0) {
+				this.itemQueue.add(item);
+				return;
+			}
 
-		synchronized (thisLock) {
-			if (queueState == QueueState.OPEN) {
+			Reader reader = take(this.readerQueue);
+			if (reader.claim()) {
 				if (canDispatchOnThisThread) {
-					if (this.readerQueue.size() == 0) {
-						itemQueue.enqueueAvailableItem(item);
-					} else {
-						reader = this.readerQueue.remove();
-					}
+					completeReader(reader, item);
 				} else {
-					if (this.readerQueue.size() == 0) {
-						itemQueue.enqueueAvailableItem(item);
-					} else {
-						itemQueue.enqueuePendingItem(item);
-						dispatchLater = true;
-					}
+					executor.submit(() -> completeReader(reader, item));
 				}
-			} else {
-				disposeItem = true;
+				return;
 			}
-		}
-
-		if (reader != null) {
-			invokeDequeuedCallback(item);
-			reader.complete(item.getValue());
-		}
 
-		if (dispatchLater) {
-			executor.submit(() -> onDispatchCallback(this));
-		} else if (disposeItem) {
-			invokeDequeuedCallback(item);
+			// The reader timed out and used up its place in the balance, try again with the next one
 		}
 	}
 
-	// This will not block, however, Dispatch() must be called later if this
-	// function returns true.
-	boolean enqueueWithoutDispatch(Item item) {
-		synchronized (thisLock) {
-			if (queueState != QueueState.CLOSED && queueState != QueueState.SHUTDOWN) {
+	private void completeReader(Reader reader, Item item) {
+		invokeDequeuedCallback(item);
+		reader.future.complete(item.getValue());
+	}
 
-				if (this.readerQueue.size() == 0) {
-					itemQueue.enqueueAvailableItem(item);
-					return false;
-				} else {
-					itemQueue.enqueuePendingItem(item);
-					return true;
-				}
-			}
+	// The element has been accounted for in the balance, but the thread adding it may not have got to it yet
+	private static <E> E take(Queue<E> queue) {
+		E element;
+		while ((element = queue.poll()) == null) {
+			Thread.yield();
 		}
-
-		invokeDequeuedCallbackLater(item);
-		return false;
+		return element;
 	}
 
-	// Used for timeouts. The InputQueue must remove readers from its reader queue
-	// to prevent dispatching items to timed out readers.
-	boolean removeReader(CompletableFuture<T> reader) {
-		synchronized (thisLock) {
-			if (queueState == QueueState.OPEN || queueState == QueueState.SHUTDOWN) {
-				return readerQueue.remove(reader);
-			}
-		}
-		return false;
+	private static long pack(int state, int balance) {
+		return ((long) state << 32) | (balance & 0xFFFFFFFFL);
 	}
 
-	private enum QueueState {
-		OPEN, SHUTDOWN, CLOSED
+	private static int state(long stateAndBalance) {
+		return (int) (stateAndBalance >>> 32);
 	}
 
-	private class Item {
-		private Consumer<T> dequeuedCallback;
-		private Exception exception;
-		private T value;
+	private static int balance(long stateAndBalance) {
+		return (int) stateAndBalance;
+	}
 
-		// Simulate empty struct constructor in C#
-		Item() {
-			this(null, null, null);
-		}
+	private class Reader {
+		private final CompletableFuture<T> future = new CompletableFuture<T>();
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		private long deadline;
 
-		Item(T value, Consumer<T> dequeuedCallback) {
-			this(value, null, dequeuedCallback);
+		// Only one of the enqueue handing an item to this reader, its timeout or the shutdown gets to complete it
+		boolean claim() {
+			if (this.claimed.compareAndSet(false, true)) {
+				InputQueue.this.waitingReaders.decrementAndGet();
+				return true;
+			}
+			return false;
 		}
+	}
 
-		Item(Exception exception, Consumer<T> dequeuedCallback) {
-			this(null, exception, dequeuedCallback);
-		}
+	private class Item {
+		private final Consumer<T> dequeuedCallback;
+		private final T value;
 
-		Item(T value, Exception exception, Consumer<T> dequeuedCallback) {
+		Item(T value, Consumer<T> dequeuedCallback) {
 			this.value = value;
-			this.exception = exception;
 			this.dequeuedCallback = dequeuedCallback;
 		}
 
@@ -344,108 +338,8 @@ final class InputQueue<T> {
 			return this.dequeuedCallback;
 		}
 
-		Exception getException() {
-			return this.exception;
-		}
-
 		T getValue() {
 			return this.value;
 		}
-
-		T getValueWithException() {
-			if (this.exception != null) {
-				throw RelayLogger.throwingException(this.exception, this, TraceLevel.WARNING);
-			}
-
-			return this.value;
-		}
-	}
-
-	private class ItemQueue {
-		private int head;
-		private Item[] items;
-		private int pendingCount;
-		private int totalCount;
-
-		@SuppressWarnings("unchecked")
-		ItemQueue() {
-			this.items = (Item[]) Array.newInstance(Item.class, 1);
-		}
-
-		// same as ItemCount
-		int getTotalCount() {
-			return this.totalCount;
-		}
-
-		boolean hasAnyItem() {
-			return this.totalCount > 0;
-		}
-
-		boolean hasAvailableItem() {
-			return this.totalCount > this.pendingCount;
-		}
-
-		Item dequeueAnyItem() {
-			if (this.pendingCount == this.totalCount) {
-				this.pendingCount--;
-			}
-
-			return dequeueItemCore();
-		}
-
-		Item dequeueAvailableItem() {
-			if (this.totalCount == this.pendingCount) {
-				throw new RuntimeException("ItemQueue does not contain any available items");
-			}
-
-			return dequeueItemCore();
-		}
-
-		void enqueueAvailableItem(Item item) {
-			enqueueItemCore(item);
-		}
-
-		void enqueuePendingItem(Item item) {
-			enqueueItemCore(item);
-			this.pendingCount++;
-		}
-
-		void makePendingItemAvailable() {
-            if (pendingCount == 0) {
-            	throw RelayLogger.invalidOperation("ItemQueue does not contain any pending items", this);
-            }
-
-			this.pendingCount--;
-		}
-
-		Item dequeueItemCore() {
-            if (totalCount == 0) {
-            	throw RelayLogger.invalidOperation("ItemQueue does not contain any items", this);
-            }
-
-			Item item = this.items[this.head];
-			this.items[this.head] = new Item();
-			this.totalCount--;
-			this.head = (this.head + 1) % this.items.length;
-			return item;
-		}
-
-		@SuppressWarnings("unchecked")
-		void enqueueItemCore(Item item) {
-
-			if (this.totalCount == this.items.length) {
-				Item[] newItems = (Item[]) Array.newInstance(Item.class, this.items.length * 2);
-				
-				for (int i = 0; i < this.totalCount; i++) {
-					newItems[i] = this.items[(head + i) % this.items.length];
-				}
-				this.head = 0;
-				this.items = newItems;
-			}
-
-			int tail = (this.head + this.totalCount) % this.items.length;
-			this.items[tail] = item;
-			this.totalCount++;
-		}
 	}
 }
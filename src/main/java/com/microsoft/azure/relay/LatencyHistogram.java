@@ -0,0 +1,108 @@
+package com.microsoft.azure.relay;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in buckets of powers of two milliseconds, which can be recorded into from many threads
+ * without locking. Bucket 0 counts the latencies under 1 ms, bucket i the ones from 2^(i-1) up to 2^i ms, and the
+ * last bucket all the longer ones.
+ */
+public final class LatencyHistogram {
+	static final int BUCKETS = 17;
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	LatencyHistogram() { }
+
+	/**
+	 * @return The number of latencies recorded.
+	 */
+	public long getCount() {
+		return this.count.sum();
+	}
+
+	/**
+	 * @return The average of the recorded latencies.
+	 */
+	public Duration getAverage() {
+		long count = this.count.sum();
+		return (count == 0) ? Duration.ZERO : Duration.ofNanos(this.totalNanos.sum() / count);
+	}
+
+	/**
+	 * @return The longest recorded latency.
+	 */
+	public Duration getMax() {
+		return Duration.ofNanos(this.maxNanos.get());
+	}
+
+	/**
+	 * @return The number of latencies in each bucket, a copy which doesn't change as more are recorded.
+	 */
+	public long[] getBucketCounts() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = this.buckets.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * @param bucket The index of the bucket
+	 * @return The latency below which the latencies of the bucket are, or null for the last bucket which has no bound.
+	 */
+	public static Duration getBucketUpperBound(int bucket) {
+		if (bucket < 0 || bucket >= BUCKETS) {
+			throw new IllegalArgumentException("There is no bucket " + bucket + ".");
+		}
+		return (bucket == BUCKETS - 1) ? null : Duration.ofMillis(1L << bucket);
+	}
+
+	/**
+	 * @param percentile The percentile between 0 and 100
+	 * @return The upper bound of the bucket which holds the given percentile of the latencies, the max latency if that
+	 *         is the last bucket, or zero if nothing was recorded.
+	 */
+	public Duration getPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("The percentile must be between 0 and 100.");
+		}
+
+		long[] counts = this.getBucketCounts();
+		long total = 0;
+		for (long count : counts) {
+			total += count;
+		}
+		if (total == 0) {
+			return Duration.ZERO;
+		}
+
+		long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS - 1; i++) {
+			seen += counts[i];
+			if (seen >= rank && seen > 0) {
+				return getBucketUpperBound(i);
+			}
+		}
+		return this.getMax();
+	}
+
+	void record(long latencyNanos) {
+		long latency = Math.max(latencyNanos, 0);
+		long millis = latency / 1_000_000;
+		int bucket = Math.min(64 - Long.numberOfLeadingZeros(millis), BUCKETS - 1);
+
+		this.buckets.incrementAndGet(bucket);
+		this.count.increment();
+		this.totalNanos.add(latency);
+
+		long max;
+		while (latency > (max = this.maxNanos.get()) && !this.maxNanos.compareAndSet(max, latency)) { }
+	}
+}
@@ -0,0 +1,56 @@
+package com.microsoft.azure.relay;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A piece of a binary message as it was received from the remote endpoint. A message consists of one or more
+ * fragments, the last of which is marked as the end of the message.
+ */
+public final class MessageFragment {
+	private final byte[] bytes;
+	private final boolean ended;
+
+	MessageFragment(byte[] bytes, boolean ended) {
+		this.bytes = bytes;
+		this.ended = ended;
+	}
+
+	/**
+	 * Wraps a whole message as its only fragment.
+	 * 
+	 * @return The fragment, or null if the message is null.
+	 */
+	static MessageFragment fromMessage(ByteBuffer message) {
+		if (message == null) {
+			return null;
+		}
+		byte[] bytes = new byte[message.remaining()];
+		message.get(bytes);
+		return new MessageFragment(bytes, true);
+	}
+
+	byte[] getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * @return A buffer over the bytes of this fragment. The bytes are not copied.
+	 */
+	public ByteBuffer getData() {
+		return ByteBuffer.wrap(this.bytes);
+	}
+
+	/**
+	 * @return The number of bytes in this fragment.
+	 */
+	public int getLength() {
+		return this.bytes.length;
+	}
+
+	/**
+	 * @return True if this is the last fragment of its message, false otherwise.
+	 */
+	public boolean isEnd() {
+		return this.ended;
+	}
+}
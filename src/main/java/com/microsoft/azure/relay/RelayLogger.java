@@ -119,6 +119,8 @@ final class RelayLogger {
 		map.put("httpInvokeUserHandler", "%s: Invoking user RequestHandler.");
 		map.put("httpMissingRequestHandler", "%s: No request handler is configured on the listener.");
 		map.put("httpReadRendezvous", "%s: reading %s from the rendezvous connection.");
+		map.put("httpRequestAbandoned", "%s: The response was not closed within %s of the request handler returning, the request no longer counts as in flight.");
+		map.put("httpRequestRejected", "%s: Rejecting the request because %s requests are in flight and no more can wait.");
 		map.put("httpRequestReceived", "%s: Request method: %s.");
 		map.put("httpRequestStarting", "%s: request initializing.");
 		map.put("httpResponseStreamFlush", "%s+ResponseStream: FlushCoreAsync(reason=%s)");
@@ -130,6 +132,8 @@ final class RelayLogger {
 		map.put("objectNotSet", "%s: %s was not set to the given value.");
 		map.put("offline", "%s is offline.");
 		map.put("parsingUUIDFailed", "%s: Parsing TrackingId '%s' as Guid failed, created new ActivityId '%s' for trace correlation.");
+		map.put("readResumed", "%s: resumed reading from remote.");
+		map.put("readSuspended", "%s: suspended reading from remote, %s received bytes in %s fragments are waiting to be read.");
 		map.put("receivedBytes", "%s: received bytes from remote. Total length: %s");
 		map.put("receivedText", "%s: received text from remote. Total length: %s");
 		map.put("rendezvousClose", "%s: Relayed Listener has received call to close and will not accept the incoming connection. ConnectionAddress: %s");
@@ -10,7 +10,6 @@ import java.util.concurrent.CompletableFuture;
 import org.eclipse.jetty.http.HttpStatus;
 
 public class RelayedHttpListenerContext implements RelayTraceSource {
-	private static final Duration ACCEPT_TIMEOUT = Duration.ofSeconds(20);
 	private String cachedToString;
 	private final RelayedHttpListenerRequest request;
 	private final RelayedHttpListenerResponse response;
@@ -75,11 +74,12 @@ public class RelayedHttpListenerContext implements RelayTraceSource {
 //            clientWebSocket.Options.AddSubProtocol(subProtocol);
 //        }
 
-		ClientWebSocket webSocket = new ClientWebSocket(this.trackingContext, HybridConnectionListener.EXECUTOR);
-		return webSocket.connectAsync(rendezvousUri, ACCEPT_TIMEOUT).thenApply(result -> webSocket);
+		ClientWebSocket webSocket = new ClientWebSocket(this.trackingContext, this.listener.getExecutor());
+		webSocket.setBufferPool(this.listener.getBufferPool());
+		return webSocket.connectAsync(rendezvousUri, this.listener.getAcceptTimeout()).thenApply(result -> webSocket);
 	}
 
-	CompletableFuture<Void> rejectAsync(URI rendezvousUri) {
+	CompletableFuture<Void> rejectAsync(URI rendezvousUri, Duration timeout) {
 		
 		if (this.response.getStatusCode() == HttpStatus.CONTINUE_100) {
 			this.response.setStatusCode(HttpStatus.BAD_REQUEST_400);
@@ -94,8 +94,8 @@ public class RelayedHttpListenerContext implements RelayTraceSource {
 					.append(URLEncoder.encode(this.response.getStatusDescription(), StringUtil.UTF8.name()));
 			URI rejectURI = new URI(builder.toString());
 			
-			ClientWebSocket webSocket = new ClientWebSocket(this.trackingContext, HybridConnectionListener.EXECUTOR);
-			return webSocket.connectAsync(rejectURI, ACCEPT_TIMEOUT).thenCompose((result) -> webSocket.closeAsync());
+			ClientWebSocket webSocket = new ClientWebSocket(this.trackingContext, this.listener.getExecutor());
+			return webSocket.connectAsync(rejectURI, timeout).thenCompose((result) -> webSocket.closeAsync());
 		} catch (IOException | URISyntaxException e) {
 			return CompletableFutureUtil.fromException(e);
 		}
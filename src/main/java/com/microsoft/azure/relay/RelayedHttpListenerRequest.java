@@ -1,6 +1,5 @@
 package com.microsoft.azure.relay;
 
-import java.io.ByteArrayInputStream;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.HashMap;
@@ -9,7 +8,7 @@ import java.util.Map;
 public final class RelayedHttpListenerRequest {
 	private final String httpMethod;
 	private final URI uri;
-	private ByteArrayInputStream inputStream;
+	private RequestBodyStream inputStream;
 	private Map<String, String> headers;
 	private boolean hasEntityBody;
 	private InetSocketAddress remoteEndPoint;
@@ -34,11 +33,14 @@ public final class RelayedHttpListenerRequest {
 		return httpMethod;
 	}
 
-	public ByteArrayInputStream getInputStream() {
+	/**
+	 * @return The body of the request, or null if the request has none.
+	 */
+	public RequestBodyStream getInputStream() {
 		return inputStream;
 	}
 
-	void setInputStream(ByteArrayInputStream inputStream) {
+	void setInputStream(RequestBodyStream inputStream) {
 		this.inputStream = inputStream;
 	}
 
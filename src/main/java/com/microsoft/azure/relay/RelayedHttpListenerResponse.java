@@ -1,6 +1,7 @@
 package com.microsoft.azure.relay;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -78,6 +79,20 @@ public class RelayedHttpListenerResponse {
 		return context;
 	}
 
+	/**
+	 * Sends a range of a file as the response body, or the next part of it, without closing the response. The file is
+	 * read in chunks the size of a websocket frame as they are sent, so the file doesn't need to fit in memory.
+	 * 
+	 * @param path The file to send
+	 * @param offset The position in the file of the first byte to send
+	 * @param length The number of bytes to send
+	 * @return A CompletableFuture which completes once the range was sent, or failed if the file cannot be read or 
+	 *         doesn't hold the whole range.
+	 */
+	public CompletableFuture<Void> sendFileAsync(Path path, long offset, long length) {
+		return this.outputStream.writeFileAsync(path, offset, length);
+	}
+
 	/**
 	 * Sends the response to the client asynchronously and releases the resources held by this
 	 * RelayedHttpListenerResponse instance.
@@ -94,9 +109,13 @@ public class RelayedHttpListenerResponse {
 	
 	/**
 	 * Sends the response to the client and releases the resources held by this
-	 * RelayedHttpListenerResponse instance.
+	 * RelayedHttpListenerResponse instance. Waits until the response was sent, so this must not be called on a 
+	 * thread of the listener executor, use closeAsync there instead.
 	 */
 	public void close() {
+		if (this.outputStream != null) {
+			this.outputStream.throwIfOnExecutorThread();
+		}
 		this.closeAsync().join();
 	}
 
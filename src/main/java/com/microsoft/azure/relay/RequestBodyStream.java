@@ -0,0 +1,139 @@
+package com.microsoft.azure.relay;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The body of a request received by a listener. A body which came over the rendezvous connection is read from
+ * the network as the handler reads it, fragment by fragment, so that a large upload doesn't have to fit in memory
+ * and the sender is slowed down while the handler falls behind. The stream is meant for one reader at a time.
+ */
+public final class RequestBodyStream extends InputStream {
+	private final ClientWebSocket webSocket;
+	private final Duration readTimeout;
+	// The fragments of a body which was received in full already, handed out in turn rather than joined together
+	private final ByteBuffer[] received;
+	private int nextReceived;
+	private ByteBuffer current;
+	private boolean ended;
+
+	// A body which was received in full already
+	RequestBodyStream(ByteBuffer... body) {
+		this.webSocket = null;
+		this.readTimeout = null;
+		this.received = body;
+		this.ended = true;
+	}
+
+	// A body which is still arriving over the given websocket
+	RequestBodyStream(ClientWebSocket webSocket, Duration readTimeout) {
+		this.webSocket = webSocket;
+		this.readTimeout = readTimeout;
+		this.received = new ByteBuffer[0];
+	}
+
+	/**
+	 * Reads the next chunk of the body without blocking.
+	 *
+	 * @return A CompletableFuture of the next chunk of the body, which may be empty, or of null once the whole body
+	 *         was read. Completes exceptionally if the connection closed before the end of the body.
+	 */
+	public CompletableFuture<ByteBuffer> readAsync() {
+		ByteBuffer buffered = this.current;
+		if (buffered != null && buffered.hasRemaining()) {
+			this.current = null;
+			return CompletableFuture.completedFuture(buffered);
+		} else if (this.nextReceived < this.received.length) {
+			this.current = null;
+			return CompletableFuture.completedFuture(this.received[this.nextReceived++]);
+		}
+		return this.ended ? CompletableFuture.completedFuture(null) : this.readFragmentAsync();
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] single = new byte[1];
+		return (this.read(single, 0, 1) == -1) ? -1 : (single[0] & 0xFF);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		} else if (len == 0) {
+			return 0;
+		}
+
+		while (this.current == null || !this.current.hasRemaining()) {
+			if (this.nextReceived < this.received.length) {
+				this.current = this.received[this.nextReceived++];
+				continue;
+			} else if (this.ended) {
+				return -1;
+			}
+
+			try {
+				this.current = this.readFragmentAsync().join();
+			} catch (CompletionException e) {
+				throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+			}
+		}
+
+		int count = Math.min(len, this.current.remaining());
+		this.current.get(b, off, count);
+		return count;
+	}
+
+	/**
+	 * Discards the rest of the body without blocking. A body which is still arriving is read off the network to its 
+	 * end, so that the connection it arrives on doesn't stay suspended behind it. Reads after this find the end.
+	 *
+	 * @return A CompletableFuture which completes once the end of the body was read. Completes exceptionally if the
+	 *         connection closed before the end of the body.
+	 */
+	public CompletableFuture<Void> closeAsync() {
+		this.current = null;
+		this.nextReceived = this.received.length;
+		if (this.ended) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return this.readFragmentAsync().thenCompose(fragment -> this.closeAsync());
+	}
+
+	/**
+	 * Discards the rest of the body like closeAsync, and waits until the end of the body was read.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			this.closeAsync().join();
+		} catch (CompletionException e) {
+			throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+		}
+	}
+
+	@Override
+	public int available() {
+		ByteBuffer buffered = this.current;
+		if ((buffered == null || !buffered.hasRemaining()) && this.nextReceived < this.received.length) {
+			buffered = this.received[this.nextReceived];
+		}
+		return (buffered != null) ? buffered.remaining() : 0;
+	}
+
+	private CompletableFuture<ByteBuffer> readFragmentAsync() {
+		return this.webSocket.readFragmentAsync(this.readTimeout).thenApply(fragment -> {
+			if (fragment == null) {
+				this.ended = true;
+				throw new CompletionException(new IOException("The connection closed before the end of the request body."));
+			}
+
+			this.ended = fragment.isEnd();
+			return fragment.getData();
+		});
+	}
+}
@@ -1,12 +1,10 @@
 package com.microsoft.azure.relay;
 
-import java.io.ByteArrayInputStream;
-
 final class RequestCommandAndStream {
 	private ListenerCommand.RequestCommand requestCommand;
-	private ByteArrayInputStream stream;
+	private RequestBodyStream stream;
 
-	public RequestCommandAndStream(ListenerCommand.RequestCommand requestCommand, ByteArrayInputStream stream) {
+	public RequestCommandAndStream(ListenerCommand.RequestCommand requestCommand, RequestBodyStream stream) {
 		this.requestCommand = requestCommand;
 		this.stream = stream;
 	}
@@ -19,11 +17,11 @@ final class RequestCommandAndStream {
 		this.requestCommand = requestCommand;
 	}
 
-	public ByteArrayInputStream getStream() {
+	public RequestBodyStream getStream() {
 		return stream;
 	}
 
-	public void setStream(ByteArrayInputStream stream) {
+	public void setStream(RequestBodyStream stream) {
 		this.stream = stream;
 	}
 }
\ No newline at end of file
@@ -11,25 +11,22 @@ import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
-import java.time.Instant;
 import java.util.Base64;
 import java.util.HashMap;
-import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
 public class SharedAccessSignatureTokenProvider extends TokenProvider {
 	private static final String UTF8_ENCODING_NAME = StandardCharsets.UTF_8.name();
-	private final byte[] encodedSharedAccessKey;
-	private final String keyName;
+	private final SharedAccessSignatureBuilder signatureBuilder;
 	private final String sharedAccessSignature;
 
 	public SharedAccessSignatureTokenProvider(String sharedAccessSignature) {
 		SharedAccessSignatureToken.validate(sharedAccessSignature);
-		this.encodedSharedAccessKey = null;
-		this.keyName = null;
+		this.signatureBuilder = null;
 		this.sharedAccessSignature = sharedAccessSignature;
 	}
 
@@ -53,9 +50,8 @@ public class SharedAccessSignatureTokenProvider extends TokenProvider {
 					+ ", which exceeded the maximum of " + SharedAccessSignatureToken.MAX_KEY_LENGTH);
 		}
 
-		this.keyName = keyName;
 		Charset encodingCharset = charset == null ? StringUtil.UTF8 : charset;
-		this.encodedSharedAccessKey = sharedAccessKey.getBytes(encodingCharset);
+		this.signatureBuilder = new SharedAccessSignatureBuilder(keyName, sharedAccessKey.getBytes(encodingCharset));
 	}
 
 	@Override
@@ -72,8 +68,7 @@ public class SharedAccessSignatureTokenProvider extends TokenProvider {
 
 	protected String buildSignature(String resource, Duration validFor) throws InvalidKeyException, UnsupportedEncodingException, NoSuchAlgorithmException {
 		if (StringUtil.isNullOrWhiteSpace(this.sharedAccessSignature)) {
-			return SharedAccessSignatureBuilder.buildSignature(this.keyName, this.encodedSharedAccessKey, resource,
-					validFor);
+			return this.signatureBuilder.buildSignature(resource, validFor);
 		}
 
 		return this.sharedAccessSignature;
@@ -81,31 +76,49 @@ public class SharedAccessSignatureTokenProvider extends TokenProvider {
 
 	static class SharedAccessSignatureBuilder {
 		static final String HMAC_ALGORITHM = "HMACSHA256";
+		static final int MAX_POOLED_MACS = 16;
+		private final String encodedKeyName;
+		private final byte[] encodedSharedAccessKey;
+		// Looking up and keying a Mac is much more expensive than signing, so keyed instances are pooled and new
+		// ones are cloned from a keyed prototype which is never used for signing itself
+		private final ArrayBlockingQueue<Mac> macPool = new ArrayBlockingQueue<Mac>(MAX_POOLED_MACS);
+		private volatile Mac prototype;
+
+		SharedAccessSignatureBuilder(String keyName, byte[] encodedSharedAccessKey) {
+			try {
+				this.encodedKeyName = URLEncoder.encode(keyName, UTF8_ENCODING_NAME);
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException("UTF-8 encoding is not supported in the java runtime.");
+			}
+			this.encodedSharedAccessKey = encodedSharedAccessKey;
+		}
 
-		public static String buildSignature(String keyName, byte[] encodedSharedAccessKey, String resource,
-				Duration timeToLive) throws UnsupportedEncodingException, InvalidKeyException, NoSuchAlgorithmException {
+		String buildSignature(String resource, Duration timeToLive) 
+				throws UnsupportedEncodingException, InvalidKeyException, NoSuchAlgorithmException {
 			
 			// Note that target URI is not normalized because in IoT scenario it
 			// is case sensitive.
-				String expiresOn = buildExpiresOn(timeToLive);
-				String audienceUri = URLEncoder.encode(resource, UTF8_ENCODING_NAME);
-				String[] fields = new String[] { audienceUri, expiresOn };
-
-				// Example String to be signed:
-				// http://mynamespace.servicebus.windows.net/a/b/c?myvalue1=a
-				// <Value for ExpiresOn>
-				String signature = SharedAccessSignatureBuilder.sign(String.join("\n", fields), encodedSharedAccessKey);
-
-				// Example returned String:
-				// SharedAccessKeySignature
-				// sr=ENCODED(http://mynamespace.servicebus.windows.net/a/b/c?myvalue1=a)&sig=<Signature>&se=<ExpiresOnValue>&skn=<KeyName>
-
-				return String.format(Locale.ROOT, "%s %s=%s&%s=%s&%s=%s&%s=%s", new Object[] {
-						SharedAccessSignatureToken.SHARED_ACCESS_SIGNATURE, SharedAccessSignatureToken.SIGNED_RESOURCE,
-						audienceUri, SharedAccessSignatureToken.SIGNATURE,
-						URLEncoder.encode(signature, UTF8_ENCODING_NAME), SharedAccessSignatureToken.SIGNED_EXPIRY,
-						URLEncoder.encode(expiresOn, UTF8_ENCODING_NAME), SharedAccessSignatureToken.SIGNATURE_KEYNAME,
-						URLEncoder.encode(keyName, UTF8_ENCODING_NAME) });
+			String expiresOn = buildExpiresOn(timeToLive);
+			String audienceUri = URLEncoder.encode(resource, UTF8_ENCODING_NAME);
+
+			// Example String to be signed:
+			// http://mynamespace.servicebus.windows.net/a/b/c?myvalue1=a
+			// <Value for ExpiresOn>
+			String signature = this.sign(audienceUri + '\n' + expiresOn);
+
+			// Example returned String:
+			// SharedAccessKeySignature
+			// sr=ENCODED(http://mynamespace.servicebus.windows.net/a/b/c?myvalue1=a)&sig=<Signature>&se=<ExpiresOnValue>&skn=<KeyName>
+			// The expiry only consists of digits, so it needs no encoding
+			StringBuilder builder = new StringBuilder(SharedAccessSignatureToken.SHARED_ACCESS_SIGNATURE.length() 
+				+ audienceUri.length() + signature.length() + expiresOn.length() + this.encodedKeyName.length() + 32);
+			builder.append(SharedAccessSignatureToken.SHARED_ACCESS_SIGNATURE).append(' ')
+				.append(SharedAccessSignatureToken.SIGNED_RESOURCE).append('=').append(audienceUri).append('&')
+				.append(SharedAccessSignatureToken.SIGNATURE).append('=');
+			appendEncodedBase64(builder, signature);
+			builder.append('&').append(SharedAccessSignatureToken.SIGNED_EXPIRY).append('=').append(expiresOn)
+				.append('&').append(SharedAccessSignatureToken.SIGNATURE_KEYNAME).append('=').append(this.encodedKeyName);
+			return builder.toString();
 		}
 
 		static String buildExpiresOn(Duration timeToLive) {
@@ -113,17 +126,66 @@ public class SharedAccessSignatureTokenProvider extends TokenProvider {
 			if (timeToLiveInSeconds < 0) {
 				throw new IllegalArgumentException("timeToLive should be a positive value");
 			}
-			long expireOnInSeconds = Instant.now().getEpochSecond() + timeToLiveInSeconds;
-			return String.valueOf(expireOnInSeconds);
+			long expireOnInSeconds = System.currentTimeMillis() / 1000 + timeToLiveInSeconds;
+			return Long.toString(expireOnInSeconds);
 		}
 
-		static String sign(String requestString, byte[] encodedSharedAccessKey) throws InvalidKeyException, NoSuchAlgorithmException {
-			Mac hmac = Mac.getInstance(HMAC_ALGORITHM);
-			SecretKeySpec secretKey = new SecretKeySpec(encodedSharedAccessKey, HMAC_ALGORITHM);
-			hmac.init(secretKey);
-			byte[] signatureBytes = hmac.doFinal(requestString.getBytes(StringUtil.UTF8));
+		String sign(String requestString) throws InvalidKeyException, NoSuchAlgorithmException {
+			Mac mac = this.macPool.poll();
+			if (mac == null) {
+				mac = this.newMac();
+			}
+			// doFinal resets the Mac, keeping its key, so it is ready for the next signature
+			byte[] signatureBytes = mac.doFinal(requestString.getBytes(StringUtil.UTF8));
+			// A full pool drops the Mac, the pool only needs to cover the signatures in flight
+			this.macPool.offer(mac);
 			return Base64.getEncoder().encodeToString(signatureBytes);
 		}
+
+		// For tests
+		int getPooledMacCount() {
+			return this.macPool.size();
+		}
+
+		private Mac newMac() throws InvalidKeyException, NoSuchAlgorithmException {
+			Mac prototype = this.prototype;
+			if (prototype == null) {
+				// Racing threads may each key a prototype, any of them will do
+				prototype = createMac(this.encodedSharedAccessKey);
+				this.prototype = prototype;
+			}
+			try {
+				return (Mac) prototype.clone();
+			} catch (CloneNotSupportedException e) {
+				return createMac(this.encodedSharedAccessKey);
+			}
+		}
+
+		private static Mac createMac(byte[] key) throws InvalidKeyException, NoSuchAlgorithmException {
+			Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+			mac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+			return mac;
+		}
+
+		// Base64 output only has '+', '/' and '=' outside of the characters which URL encoding leaves as is
+		private static void appendEncodedBase64(StringBuilder builder, String base64) {
+			for (int i = 0; i < base64.length(); i++) {
+				char c = base64.charAt(i);
+				switch (c) {
+					case '+':
+						builder.append("%2B");
+						break;
+					case '/':
+						builder.append("%2F");
+						break;
+					case '=':
+						builder.append("%3D");
+						break;
+					default:
+						builder.append(c);
+				}
+			}
+		}
 	}
 
 	// A SecurityToken that wraps a Shared Access Signature
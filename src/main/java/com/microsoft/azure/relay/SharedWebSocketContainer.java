@@ -0,0 +1,208 @@
+package com.microsoft.azure.relay;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.WebSocketContainer;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.common.scopes.SimpleContainerScope;
+import org.eclipse.jetty.websocket.jsr356.ClientContainer;
+
+/**
+ * A process wide, reference counted websocket container which is shared by every websocket connection
+ * made by this library. Each started container owns its own selector threads, worker threads and buffer pools,
+ * so sharing one container avoids paying that startup and shutdown cost for every rendezvous and reconnect.
+ * The container is started when the first reference is acquired and stopped once it has not been referenced
+ * for the idle linger duration.
+ */
+public final class SharedWebSocketContainer {
+	static final int DEFAULT_SELECTOR_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	static final int DEFAULT_MAX_THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+	static final Duration DEFAULT_IDLE_LINGER = Duration.ofSeconds(30);
+	private static final int MIN_THREADS = 2;
+	private static final int THREAD_IDLE_TIMEOUT_MILLIS = 60000;
+	private static final Object THIS_LOCK = new Object();
+	// A daemon thread like the ones of the container itself, so that a pending stop doesn't keep the process alive
+	private static final ScheduledThreadPoolExecutor EXECUTOR = createLingerExecutor();
+	private static int selectorCount = DEFAULT_SELECTOR_COUNT;
+	private static int maxThreads = DEFAULT_MAX_THREADS;
+	private static Duration idleLinger = DEFAULT_IDLE_LINGER;
+	private static ClientContainer container;
+	private static ScheduledFuture<?> stopTask;
+	private static int refCount;
+
+	private SharedWebSocketContainer() { }
+
+	/**
+	 * @return The number of selector threads used by the shared container.
+	 */
+	public static int getSelectorCount() {
+		synchronized (THIS_LOCK) {
+			return selectorCount;
+		}
+	}
+
+	/**
+	 * Sets the number of selector threads used by the shared container. Takes effect the next time the container is started.
+	 *
+	 * @param selectorCount The number of selector threads, must be positive.
+	 */
+	public static void setSelectorCount(int selectorCount) {
+		if (selectorCount < 1) {
+			throw new IllegalArgumentException("selectorCount must be a positive value.");
+		}
+		synchronized (THIS_LOCK) {
+			SharedWebSocketContainer.selectorCount = selectorCount;
+		}
+	}
+
+	/**
+	 * @return The maximum number of worker threads, including selector threads, used by the shared container.
+	 */
+	public static int getMaxThreads() {
+		synchronized (THIS_LOCK) {
+			return maxThreads;
+		}
+	}
+
+	/**
+	 * Sets the maximum number of worker threads, including selector threads, used by the shared container.
+	 * Takes effect the next time the container is started.
+	 *
+	 * @param maxThreads The maximum number of threads, must be greater than the selector count.
+	 */
+	public static void setMaxThreads(int maxThreads) {
+		if (maxThreads < MIN_THREADS) {
+			throw new IllegalArgumentException("maxThreads must be at least " + MIN_THREADS + ".");
+		}
+		synchronized (THIS_LOCK) {
+			SharedWebSocketContainer.maxThreads = maxThreads;
+		}
+	}
+
+	/**
+	 * @return How long the shared container stays started after its last reference was released.
+	 */
+	public static Duration getIdleLinger() {
+		synchronized (THIS_LOCK) {
+			return idleLinger;
+		}
+	}
+
+	/**
+	 * Sets how long the shared container stays started after its last reference was released.
+	 *
+	 * @param idleLinger The linger duration, may be zero but not negative.
+	 */
+	public static void setIdleLinger(Duration idleLinger) {
+		if (idleLinger == null || idleLinger.isNegative()) {
+			throw new IllegalArgumentException("idleLinger cannot be null or negative.");
+		}
+		synchronized (THIS_LOCK) {
+			SharedWebSocketContainer.idleLinger = idleLinger;
+		}
+	}
+
+	/**
+	 * For Debug/Diagnostic purposes only.
+	 * @return The number of websockets currently holding a reference to the shared container.
+	 */
+	static int getRefCount() {
+		synchronized (THIS_LOCK) {
+			return refCount;
+		}
+	}
+
+	/**
+	 * Acquires a reference to the shared container, starting it if needed.
+	 * Every call must be paired with exactly one call to {@link #release()}.
+	 */
+	static WebSocketContainer acquire() {
+		synchronized (THIS_LOCK) {
+			if (stopTask != null) {
+				stopTask.cancel(false);
+				stopTask = null;
+			}
+
+			if (container == null) {
+				container = createContainer(selectorCount, Math.max(maxThreads, selectorCount + MIN_THREADS));
+			}
+
+			refCount++;
+			return container;
+		}
+	}
+
+	/**
+	 * Releases a reference previously taken with {@link #acquire()}.
+	 */
+	static void release() {
+		synchronized (THIS_LOCK) {
+			if (refCount == 0) {
+				throw RelayLogger.invalidOperation("the shared websocket container has no outstanding references.", SharedWebSocketContainer.class);
+			}
+
+			refCount--;
+			if (refCount == 0 && container != null) {
+				ClientContainer idleContainer = container;
+				stopTask = EXECUTOR.schedule(() -> stopIfIdle(idleContainer), idleLinger.toMillis(), TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private static void stopIfIdle(ClientContainer idleContainer) {
+		synchronized (THIS_LOCK) {
+			if (refCount > 0 || container != idleContainer) {
+				return;
+			}
+			container = null;
+			stopTask = null;
+		}
+
+		try {
+			idleContainer.stop();
+		} catch (Exception e) {
+			RelayLogger.handledExceptionAsWarning(e, SharedWebSocketContainer.class);
+		}
+	}
+
+	private static ScheduledThreadPoolExecutor createLingerExecutor() {
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "relay-websocket-linger");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.setRemoveOnCancelPolicy(true);
+		return executor;
+	}
+
+	private static ClientContainer createContainer(int selectors, int threads) {
+		QueuedThreadPool threadPool = new QueuedThreadPool(threads, MIN_THREADS, THREAD_IDLE_TIMEOUT_MILLIS);
+		threadPool.setName("relay-websocket");
+		threadPool.setDaemon(true);
+
+		HttpClient httpClient = new HttpClient(new HttpClientTransportOverHTTP(selectors), new SslContextFactory());
+		httpClient.setExecutor(threadPool);
+		httpClient.setScheduler(new ScheduledExecutorScheduler("relay-websocket-scheduler", true));
+
+		SimpleContainerScope scope = new SimpleContainerScope(WebSocketPolicy.newClientPolicy());
+		ClientContainer newContainer = new ClientContainer(scope, httpClient) { };
+		newContainer.getClient().addManaged(httpClient);
+		newContainer.setDefaultMaxTextMessageBufferSize(RelayConstants.DEFAULT_CONNECTION_BUFFER_SIZE);
+
+		try {
+			newContainer.start();
+		} catch (Exception e) {
+			throw RelayLogger.throwingException(e, SharedWebSocketContainer.class);
+		}
+		return newContainer;
+	}
+}
@@ -4,12 +4,20 @@
 package com.microsoft.azure.relay;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 import java.net.URI;
 import java.net.URISyntaxException;
 
 public abstract class TokenProvider {
 	static final Duration DEFAULT_TOKEN_TIMEOUT = Duration.ofMinutes(60);
+	static final Duration DEFAULT_TOKEN_REFRESH_MARGIN = Duration.ofMinutes(5);
+	private final ConcurrentMap<String, CompletableFuture<SecurityToken>> tokenCache = new ConcurrentHashMap<String, CompletableFuture<SecurityToken>>();
+	private volatile Duration tokenRefreshMargin = DEFAULT_TOKEN_REFRESH_MARGIN;
 
 	// Initializes a new instance of the <see cref="TokenProvider" /> class.
 	protected TokenProvider() {
@@ -42,7 +50,29 @@ public abstract class TokenProvider {
 	}
 
 	/**
-	 * Gets a SecurityToken for the given audience and duration
+	 * @return How long before its expiry a cached token stops being handed out and is replaced by a new one.
+	 */
+	public Duration getTokenRefreshMargin() {
+		return this.tokenRefreshMargin;
+	}
+
+	/**
+	 * Sets how long before its expiry a cached token stops being handed out and is replaced by a new one.
+	 * 
+	 * @param tokenRefreshMargin The refresh margin, may be zero but not negative.
+	 */
+	public void setTokenRefreshMargin(Duration tokenRefreshMargin) {
+		if (tokenRefreshMargin == null || tokenRefreshMargin.isNegative()) {
+			throw new IllegalArgumentException("tokenRefreshMargin cannot be null or negative.");
+		}
+		this.tokenRefreshMargin = tokenRefreshMargin;
+	}
+
+	/**
+	 * Gets a SecurityToken for the given audience and duration. Tokens are cached per audience and validFor, and 
+	 * handed out until they are within the refresh margin of their expiry, after which they are evicted the next
+	 * time a token is generated. Concurrent requests for a token which 
+	 * is being generated share that generation.
 	 * 
 	 * @param urlString The target audience for the security token
 	 * @param validFor  How long the generated token should be valid for
@@ -56,14 +86,81 @@ public abstract class TokenProvider {
 				throw new IllegalArgumentException("Null url provided for security token");
 			}
 			TimeoutHelper.throwIfNegativeArgument(validFor, "validFor");
-			urlString = normalizeAudience(urlString);
-			future = this.onGetTokenAsync(urlString, validFor);
+			String audience = normalizeAudience(urlString);
+			// A token is only as long valid as it was asked for, so requests with another validFor get their own
+			String cacheKey = audience + ' ' + validFor.toMillis();
+
+			while (true) {
+				CompletableFuture<SecurityToken> cachedTask = this.tokenCache.get(cacheKey);
+				if (cachedTask != null) {
+					if (!cachedTask.isDone()) {
+						// Hand out a dependent future so callers cannot complete the shared one
+						return cachedTask.thenApply(Function.identity());
+					}
+					if (this.isFresh(cachedTask)) {
+						return CompletableFuture.completedFuture(cachedTask.join());
+					}
+				}
+
+				this.removeStaleTokens();
+				CompletableFuture<SecurityToken> refreshTask = new CompletableFuture<SecurityToken>();
+				boolean added = (cachedTask == null) ? this.tokenCache.putIfAbsent(cacheKey, refreshTask) == null
+					: this.tokenCache.replace(cacheKey, cachedTask, refreshTask);
+				if (added) {
+					this.refreshToken(cacheKey, audience, validFor, refreshTask);
+					return refreshTask.thenApply(Function.identity());
+				}
+				// Another caller has started a refresh for this token in the meantime, use theirs
+			}
 		} catch (Exception e) {
 			future.completeExceptionally(RelayLogger.throwingException(e, this));
 		}
 		return future;
 	}
 
+	private void refreshToken(String cacheKey, String audience, Duration validFor, CompletableFuture<SecurityToken> refreshTask) {
+		CompletableFuture<SecurityToken> generateTask;
+		try {
+			generateTask = this.onGetTokenAsync(audience, validFor);
+		} catch (Exception e) {
+			generateTask = CompletableFutureUtil.fromException(e);
+		}
+
+		generateTask.whenComplete((token, ex) -> {
+			if (ex != null) {
+				// Do not cache failures, the next caller tries again
+				this.tokenCache.remove(cacheKey, refreshTask);
+				refreshTask.completeExceptionally(ex);
+			} else {
+				refreshTask.complete(token);
+			}
+		});
+	}
+
+	// Drops the tokens which would not be handed out anymore, so audiences which are no longer asked for do not
+	// stay cached forever. Only runs when a token has to be generated anyway.
+	private void removeStaleTokens() {
+		for (Map.Entry<String, CompletableFuture<SecurityToken>> entry : this.tokenCache.entrySet()) {
+			CompletableFuture<SecurityToken> tokenTask = entry.getValue();
+			if (tokenTask.isDone() && !this.isFresh(tokenTask)) {
+				this.tokenCache.remove(entry.getKey(), tokenTask);
+			}
+		}
+	}
+
+	// For tests
+	int getCachedTokenCount() {
+		return this.tokenCache.size();
+	}
+
+	private boolean isFresh(CompletableFuture<SecurityToken> tokenTask) {
+		if (!CompletableFutureUtil.isDoneNormally(tokenTask)) {
+			return false;
+		}
+		Instant expiresAt = tokenTask.join().getExpiresAtUtc();
+		return expiresAt != null && Instant.now().plus(this.tokenRefreshMargin).isBefore(expiresAt);
+	}
+
 	/**
 	 * Implemented by derived TokenProvider types to generate their SecurityTokens.
 	 * 
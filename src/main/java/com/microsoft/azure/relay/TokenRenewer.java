@@ -2,20 +2,25 @@ package com.microsoft.azure.relay;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 class TokenRenewer {
+	// Renewals are brought forward by a random amount of up to this much, so that listeners which
+	// acquired their tokens together do not all renew them at the same moment
+	static final Duration MAX_RENEW_JITTER = Duration.ofMinutes(2);
+	static final Duration RENEW_RETRY_INTERVAL = Duration.ofSeconds(30);
 	private final HybridConnectionListener listener;
 	private final String appliesTo;
 	private final Duration tokenValidFor;
 	private final Lock scheduleLock = new ReentrantLock();
-	private Timer renewTimer;
-	private TimerTask renewTimerTask;
+	private ScheduledFuture<?> renewTask;
+	private boolean closed;
 	private Consumer<SecurityToken> onTokenRenewed;
 
 	protected TokenRenewer(HybridConnectionListener listener, String appliesTo, Duration tokenValidFor) {
@@ -43,9 +48,13 @@ class TokenRenewer {
 			.getTokenAsync(this.appliesTo, this.tokenValidFor)
 			.thenApply((token) -> {
 				RelayLogger.logEvent("getTokenStop", this.listener, token.getExpiresAtUtc().toString());
+				this.listener.getStatistics().onTokenAcquired(token);
 
-				if (raiseTokenRenewedEvent && this.onTokenRenewed != null) {
-					this.onTokenRenewed.accept(token);
+				if (raiseTokenRenewedEvent) {
+					this.listener.getStatistics().onTokenRenewed();
+					if (this.onTokenRenewed != null) {
+						this.onTokenRenewed.accept(token);
+					}
 				}
 				this.scheduleRenewTimer(token);
 				return token;
@@ -53,54 +62,80 @@ class TokenRenewer {
 	}
 
 	protected void close() {
-	    if (this.renewTimer != null) {
-	        this.renewTimer.cancel();
-	        this.renewTimer.purge();
-	    }
+		this.scheduleLock.lock();
+		try {
+			this.closed = true;
+			if (this.renewTask != null) {
+				this.renewTask.cancel(false);
+				this.renewTask = null;
+			}
+			this.listener.getStatistics().onTokenRenewalScheduled(null);
+		} finally {
+			this.scheduleLock.unlock();
+		}
 	}
 
 	void onRenewTimer() {
 		try {
-			this.getTokenAsync(true);
+			this.getTokenAsync(true).whenComplete((token, ex) -> {
+				if (ex != null) {
+					this.onRenewFailed(ex);
+				}
+			});
 		} catch (Exception exception) {
-			RelayLogger.handledExceptionAsWarning(exception, this);
+			this.onRenewFailed(exception);
 		}
 	}
 
+	private void onRenewFailed(Throwable exception) {
+		RelayLogger.handledExceptionAsWarning(exception, this);
+		this.listener.getStatistics().onTokenRenewalFailed();
+		this.schedule(RENEW_RETRY_INTERVAL);
+	}
+
 	private void scheduleRenewTimer(SecurityToken token) {
-	    if (scheduleLock.tryLock()) {
-	        try {
-	            if (this.renewTimer == null) {
-	                this.renewTimer = new Timer();    
-	            }
-	            
-	            Duration interval = Duration.between(Instant.now(), token.getExpiresAtUtc());
-	            if (interval.isNegative()) {
-	                RelayLogger.logEvent("tokenRenewNegativeDuration", this.listener);
-	                return;
-	            }
-
-	            // TokenProvider won't return a token which is within 5min of expiring so we don't have to pad here.
-	            interval = interval.compareTo(RelayConstants.CLIENT_MINIMUM_TOKEN_REFRESH_INTERVAL) < 0 ? 
-	                    RelayConstants.CLIENT_MINIMUM_TOKEN_REFRESH_INTERVAL : interval;
-
-	            if (this.renewTimerTask != null) {
-	                // There may already be renew task scheduled previously, cancel to prevent replication
-	                this.renewTimerTask.cancel();
-	            }
-                this.renewTimerTask = new TimerTask() {
-                    @Override
-                    public void run() {
-                        onRenewTimer();
-                    }
-                };
-                this.renewTimer.schedule(this.renewTimerTask, interval.toMillis());
-                RelayLogger.logEvent("tokenRenewScheduled", this.listener, interval.toString());
-	        } finally {
-	            scheduleLock.unlock();
-	        }
-	    } else {
-	        // Let somebody else get token and renew, we don't need to
-	    }
+		Duration interval = Duration.between(Instant.now(), token.getExpiresAtUtc());
+		if (interval.isNegative()) {
+			RelayLogger.logEvent("tokenRenewNegativeDuration", this.listener);
+			return;
+		}
+
+		// TokenProvider won't return a token which is within its refresh margin of expiring, so renewing
+		// no earlier than that margin before expiry gets a new token
+		Duration maxJitter = min(MAX_RENEW_JITTER, this.listener.getTokenProvider().getTokenRefreshMargin());
+		maxJitter = min(maxJitter, interval.dividedBy(10));
+		if (!maxJitter.isZero()) {
+			interval = interval.minusMillis(ThreadLocalRandom.current().nextLong(maxJitter.toMillis() + 1));
+		}
+
+		interval = interval.compareTo(RelayConstants.CLIENT_MINIMUM_TOKEN_REFRESH_INTERVAL) < 0 ? 
+			RelayConstants.CLIENT_MINIMUM_TOKEN_REFRESH_INTERVAL : interval;
+		this.schedule(interval);
+	}
+
+	private void schedule(Duration interval) {
+		if (this.scheduleLock.tryLock()) {
+			try {
+				if (this.closed) {
+					return;
+				}
+
+				if (this.renewTask != null) {
+					// There may already be renew task scheduled previously, cancel to prevent replication
+					this.renewTask.cancel(false);
+				}
+				this.renewTask = this.listener.getExecutor().schedule(() -> onRenewTimer(), interval.toMillis(), TimeUnit.MILLISECONDS);
+				this.listener.getStatistics().onTokenRenewalScheduled(Instant.now().plus(interval));
+				RelayLogger.logEvent("tokenRenewScheduled", this.listener, interval.toString());
+			} finally {
+				this.scheduleLock.unlock();
+			}
+		} else {
+			// Let somebody else get token and renew, we don't need to
+		}
+	}
+
+	private static Duration min(Duration first, Duration second) {
+		return (first.compareTo(second) <= 0) ? first : second;
 	}
 }
@@ -0,0 +1,36 @@
+package com.microsoft.azure.relay;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to the virtual threads of Java 21 and later, looked up at runtime since the library builds for Java 8.
+ */
+final class VirtualThreads {
+	// Starts one virtual thread per task, null if the runtime has no virtual threads
+	private static final Executor EXECUTOR = createExecutor();
+
+	private VirtualThreads() { }
+
+	static boolean isSupported() {
+		return EXECUTOR != null;
+	}
+
+	static Executor getExecutor() {
+		if (EXECUTOR == null) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or later.");
+		}
+		return EXECUTOR;
+	}
+
+	private static Executor createExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (Executor) factory.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Older runtime, or a preview runtime without preview features enabled
+			return null;
+		}
+	}
+}
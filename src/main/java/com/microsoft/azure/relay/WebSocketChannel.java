@@ -4,13 +4,14 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
 import javax.websocket.CloseReason;
 
 public class WebSocketChannel implements HybridConnectionChannel {
 	private final ClientWebSocket websocket;
 	private final TrackingContext trackingContext;
 	
-	WebSocketChannel(TrackingContext trackingContext, AutoShutdownScheduledExecutor executor) {
+	WebSocketChannel(TrackingContext trackingContext, ScheduledExecutorService executor) {
 		this(new ClientWebSocket(trackingContext, executor), trackingContext);
 	}
 	
@@ -27,6 +28,34 @@ public class WebSocketChannel implements HybridConnectionChannel {
 		return this.websocket;
 	}
 
+	/**
+	 * @return The number of received bytes which are waiting to be read from this channel.
+	 */
+	public long getBufferedBytes() {
+		return this.websocket.getBufferedBytes();
+	}
+	
+	/**
+	 * @return The number of received message fragments which are waiting to be read from this channel.
+	 */
+	public int getBufferedFragments() {
+		return this.websocket.getBufferedFragments();
+	}
+	
+	/**
+	 * @return True if this channel has stopped reading from the network until buffered fragments are read.
+	 */
+	public boolean isReadSuspended() {
+		return this.websocket.isReadSuspended();
+	}
+	
+	/**
+	 * @return The number of times this channel stopped reading from the network because its reader fell behind.
+	 */
+	public long getReadSuspendCount() {
+		return this.websocket.getReadSuspendCount();
+	}
+	
 	/**
 	 * Checks whether the websocket connection is still open.
 	 */
@@ -90,6 +119,45 @@ public class WebSocketChannel implements HybridConnectionChannel {
 		return this.websocket.readBinaryAsync(timeout);
 	}
 	
+	/**
+	 * Receives byte messages from the remote sender asynchronously as a list of buffers, one per received fragment.
+	 * 
+	 * @return Returns a CompletableFuture of the buffers which completes when websocket receives the entire message.
+	 */
+	public CompletableFuture<ByteBuffer[]> readBuffersAsync() {
+		return this.websocket.readBinaryBuffersAsync(null);
+	}
+	
+	/**
+	 * Receives byte messages from the remote sender asynchronously within a given timeout as a list of buffers, 
+	 * one per received fragment.
+	 * 
+	 * @param timeout The timeout duration for this operation.
+	 * @return Returns a CompletableFuture of the buffers which completes when websocket receives the entire message.
+	 */
+	public CompletableFuture<ByteBuffer[]> readBuffersAsync(Duration timeout) {
+		return this.websocket.readBinaryBuffersAsync(timeout);
+	}
+	
+	/**
+	 * Receives the next fragment of a byte message from the remote sender asynchronously.
+	 * 
+	 * @return Returns a CompletableFuture of the fragment, or null if the connection was closed.
+	 */
+	public CompletableFuture<MessageFragment> readFragmentAsync() {
+		return this.websocket.readFragmentAsync(null);
+	}
+	
+	/**
+	 * Receives the next fragment of a byte message from the remote sender asynchronously within a given timeout.
+	 * 
+	 * @param timeout The timeout duration for this operation.
+	 * @return Returns a CompletableFuture of the fragment, or null if the connection was closed.
+	 */
+	public CompletableFuture<MessageFragment> readFragmentAsync(Duration timeout) {
+		return this.websocket.readFragmentAsync(timeout);
+	}
+	
 	/**
 	 * Sends the data to the remote endpoint as binary.
 	 * 
@@ -111,6 +179,18 @@ public class WebSocketChannel implements HybridConnectionChannel {
 		return this.websocket.writeAsync(data, timeout);
 	}
 	
+	/**
+	 * Sends the data to the remote endpoint within a timeout as binary without copying it first. The channel owns
+	 * the buffer until the returned CompletableFuture completes, and its content is unspecified afterwards.
+	 * 
+	 * @param data Message to be sent.
+	 * @param timeout The timeout to connect to send the data within. May be null to indicate no timeout limit.
+	 * @return A CompletableFuture which completes when websocket finishes sending the bytes.
+	 */
+	public CompletableFuture<Void> writeWithoutCopyAsync(ByteBuffer data, Duration timeout) {
+		return this.websocket.writeAsync(data, timeout, true, WriteMode.BINARY, false);
+	}
+	
 	/**
 	 * Sends the data to the remote endpoint within a timeout in one of the WriteModes.
 	 * 
@@ -3,6 +3,7 @@ package com.microsoft.azure.relay;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.time.Duration;
@@ -75,4 +76,59 @@ public class AsyncSemaphoreTest {
 		}
 		assertFalse("Should have been an valid operation", lockExceptionThrown);
 	}
+	
+	@Test
+	public void waitersAreGrantedInOrderTest() {
+		AsyncSemaphore sem = new AsyncSemaphore(3, EXECUTOR);
+		LockRelease held = sem.acquireAsync(3).join();
+		CompletableFuture<LockRelease> large = sem.acquireAsync(2);
+		CompletableFuture<LockRelease> small = sem.acquireAsync(1);
+		assertEquals(2, sem.getQueueLength());
+
+		// One permit would do for the small request but it must not overtake the large one
+		held.release(1);
+		assertFalse("The small request should wait behind the large one", small.isDone() || large.isDone());
+		assertEquals(1, sem.availablePermits());
+
+		held.release(1);
+		large.join();
+		held.release(1);
+		small.join();
+		assertEquals(0, sem.getQueueLength());
+		assertEquals(2, sem.getMaxQueueLength());
+		assertEquals(2, sem.getWaitCount());
+		assertEquals(0, sem.availablePermits());
+	}
+	
+	@Test
+	public void timedOutWaiterUnblocksTheNextTest() throws Throwable {
+		AsyncSemaphore sem = new AsyncSemaphore(3, EXECUTOR);
+		LockRelease held = sem.acquireAsync(3).join();
+		CompletableFuture<LockRelease> large = sem.acquireAsync(3, TIMEOUT);
+		CompletableFuture<LockRelease> small = sem.acquireAsync(1);
+		held.release(1);
+
+		try {
+			large.join();
+		} catch (CompletionException e) {
+			assertTrue("The large request should time out", e.getCause() instanceof java.util.concurrent.TimeoutException);
+		}
+		small.join().release();
+		held.release(2);
+		assertEquals("The timed out request should not keep any permits", 3, sem.availablePermits());
+	}
+
+	@Test
+	public void tryAcquireRespectsMaxQueueLengthTest() {
+		AsyncSemaphore sem = new AsyncSemaphore(1, EXECUTOR);
+		CompletableFuture<LockRelease> first = sem.tryAcquireAsync(null, 1);
+		CompletableFuture<LockRelease> second = sem.tryAcquireAsync(null, 1);
+		assertTrue("The first caller should get the permit right away.", first.isDone());
+		assertFalse("The second caller should wait.", second.isDone());
+		assertNull("A third caller should not fit into the queue.", sem.tryAcquireAsync(null, 1));
+
+		first.join().release();
+		second.join().release();
+		assertEquals(1, sem.availablePermits());
+	}
 }
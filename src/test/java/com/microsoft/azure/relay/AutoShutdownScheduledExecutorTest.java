@@ -0,0 +1,69 @@
+package com.microsoft.azure.relay;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class AutoShutdownScheduledExecutorTest {
+
+	@Test
+	public void cancelRunningTaskTest() throws Exception {
+		AutoShutdownScheduledExecutor executor = AutoShutdownScheduledExecutor.Create();
+		AtomicReference<ScheduledFuture<?>> future = new AtomicReference<ScheduledFuture<?>>();
+		CountDownLatch scheduled = new CountDownLatch(1);
+		CountDownLatch ran = new CountDownLatch(1);
+
+		future.set(executor.schedule(() -> {
+			try {
+				scheduled.await();
+			} catch (InterruptedException e) { }
+			// Cancelling a task from within itself should not release its reference a second time
+			future.get().cancel(false);
+			ran.countDown();
+		}, 0, TimeUnit.MILLISECONDS));
+		scheduled.countDown();
+		assertTrue("The scheduled task should run.", ran.await(5, TimeUnit.SECONDS));
+		Thread.sleep(50);
+
+		assertEquals("The executor should still accept work.", 1, (int) executor.submit(() -> 1).get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void idleThreadsTimeOutTest() throws Exception {
+		AutoShutdownScheduledExecutor executor = new AutoShutdownScheduledExecutor(2, Duration.ofMillis(50));
+		assertEquals(1, (int) executor.submit(() -> 1).get(5, TimeUnit.SECONDS));
+		assertTrue("The pool should have started a thread.", executor.getPoolSize() > 0);
+
+		for (int i = 0; i < 100 && executor.getPoolSize() > 0; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals("Idle threads should go away.", 0, executor.getPoolSize());
+		assertEquals("The executor should still accept work after its threads went away.", 2, (int) executor.submit(() -> 2).get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void taskLatencyTest() throws Exception {
+		AutoShutdownScheduledExecutor executor = new AutoShutdownScheduledExecutor(1);
+		CountDownLatch blocked = new CountDownLatch(1);
+		executor.execute(() -> {
+			try {
+				blocked.await();
+			} catch (InterruptedException e) { }
+		});
+		// The second task waits for the only thread
+		ScheduledFuture<?> waiting = executor.schedule(() -> { }, 0, TimeUnit.MILLISECONDS);
+		assertTrue("The waiting task should be queued.", executor.getQueueDepth() >= 1);
+		Thread.sleep(50);
+		blocked.countDown();
+		waiting.get(5, TimeUnit.SECONDS);
+
+		assertTrue("The max latency should include the time spent waiting for the thread.", executor.getMaxTaskLatency().toMillis() >= 50);
+		assertTrue(executor.getAverageTaskLatency().compareTo(executor.getMaxTaskLatency()) <= 0);
+	}
+}
@@ -0,0 +1,58 @@
+package com.microsoft.azure.relay;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+	@Test
+	public void releasedBuffersAreReusedTest() {
+		BufferPool pool = new BufferPool();
+		ByteBuffer buffer = pool.acquire(1500);
+		assertEquals("The buffer should be as large as its size class.", 2048, buffer.capacity());
+		assertEquals("The buffer should be limited to the requested size.", 1500, buffer.limit());
+		assertEquals(0, pool.getHits());
+		assertEquals(1, pool.getMisses());
+
+		buffer.put((byte) 1);
+		pool.release(buffer);
+		assertEquals(1, pool.getPooledBuffers());
+		ByteBuffer reused = pool.acquire(2000);
+		assertSame("A buffer of the same size class should be reused.", buffer, reused);
+		assertEquals(0, reused.position());
+		assertEquals(2000, reused.limit());
+		assertEquals(1, pool.getHits());
+	}
+
+	@Test
+	public void foreignBuffersAreNotPooledTest() {
+		BufferPool pool = new BufferPool();
+		pool.release(ByteBuffer.allocate(1000));
+		pool.release(ByteBuffer.allocateDirect(1024));
+		pool.release(ByteBuffer.allocate(1024).asReadOnlyBuffer());
+		assertEquals(0, pool.getPooledBuffers());
+
+		ByteBuffer large = pool.acquire(2 << BufferPool.MAX_SIZE_CLASS_SHIFT);
+		pool.release(large);
+		assertEquals("Buffers beyond the largest size class should not be kept.", 0, pool.getPooledBuffers());
+	}
+
+	@Test
+	public void poolKeepsAtMostMaxBuffersPerSizeTest() {
+		BufferPool pool = new BufferPool(1, true);
+		ByteBuffer first = pool.acquire(100);
+		ByteBuffer second = pool.acquire(100);
+		assertTrue(first.isDirect());
+		pool.release(first);
+		pool.release(second);
+		assertEquals(1, pool.getPooledBuffers());
+
+		BufferPool unpooled = new BufferPool(0, false);
+		unpooled.release(unpooled.acquire(100));
+		unpooled.acquire(100);
+		assertEquals("A pool which keeps no buffers should allocate every time.", 2, unpooled.getMisses());
+	}
+}
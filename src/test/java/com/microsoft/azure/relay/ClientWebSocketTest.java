@@ -0,0 +1,63 @@
+package com.microsoft.azure.relay;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+import org.junit.Test;
+
+public class ClientWebSocketTest {
+	private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+	@Test
+	public void bufferedFragmentsAccountingTest() {
+		ClientWebSocket webSocket = new ClientWebSocket(TrackingContext.create(), HybridConnectionListener.EXECUTOR);
+		webSocket.onFragmentReceived(new MessageFragment(new byte[10], false));
+		webSocket.onFragmentReceived(new MessageFragment(new byte[20], true));
+		assertEquals("Both fragments should be waiting to be read.", 2, webSocket.getBufferedFragments());
+		assertEquals("Bytes of both fragments should be waiting to be read.", 30, webSocket.getBufferedBytes());
+
+		MessageFragment fragment = webSocket.readFragmentAsync(TIMEOUT).join();
+		assertEquals("The first fragment should be read first.", 10, fragment.getLength());
+		assertFalse("The first fragment is not the end of the message.", fragment.isEnd());
+		assertEquals("One fragment should be left.", 1, webSocket.getBufferedFragments());
+		assertEquals("Bytes of one fragment should be left.", 20, webSocket.getBufferedBytes());
+
+		fragment = webSocket.readFragmentAsync(TIMEOUT).join();
+		assertTrue("The second fragment ends the message.", fragment.isEnd());
+		assertEquals("No fragments should be left.", 0, webSocket.getBufferedFragments());
+		assertEquals("No bytes should be left.", 0, webSocket.getBufferedBytes());
+	}
+
+	@Test
+	public void readBuffersWithoutReassemblyTest() {
+		ClientWebSocket webSocket = new ClientWebSocket(TrackingContext.create(), HybridConnectionListener.EXECUTOR);
+		byte[] first = new byte[] { 1, 2 };
+		byte[] second = new byte[] { 3 };
+		webSocket.onFragmentReceived(new MessageFragment(first, false));
+		webSocket.onFragmentReceived(new MessageFragment(second, true));
+
+		ByteBuffer[] buffers = webSocket.readBinaryBuffersAsync(TIMEOUT).join();
+		assertEquals("There should be one buffer per fragment.", 2, buffers.length);
+		assertSame("Fragments should not be copied.", first, buffers[0].array());
+		assertSame("Fragments should not be copied.", second, buffers[1].array());
+		assertEquals("Reading the message should drain the buffered bytes.", 0, webSocket.getBufferedBytes());
+	}
+
+	@Test
+	public void readReassemblesFragmentsTest() {
+		ClientWebSocket webSocket = new ClientWebSocket(TrackingContext.create(), HybridConnectionListener.EXECUTOR);
+		webSocket.onFragmentReceived(new MessageFragment(new byte[] { 1, 2 }, false));
+		webSocket.onFragmentReceived(new MessageFragment(new byte[] { 3 }, true));
+
+		ByteBuffer message = webSocket.readBinaryAsync(TIMEOUT).join();
+		assertArrayEquals("Fragments should be joined in order.", new byte[] { 1, 2, 3 }, message.array());
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void nonPositiveMaxBufferedBytesTest() {
+		ClientWebSocket webSocket = new ClientWebSocket(TrackingContext.create(), HybridConnectionListener.EXECUTOR);
+		webSocket.setMaxBufferedBytes(0);
+	}
+}
@@ -5,7 +5,9 @@ import static org.junit.Assert.*;
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.junit.*;
 
@@ -138,4 +140,104 @@ public class InputQueueTest {
 			fail("Dequeue threw exception when the operation is within time limit and it shouldn't have thrown.");
 		}
 	}
+	
+	@Test
+	public void timedOutReaderIsNotCountedTest() throws Throwable {
+		CompletableFuture<Integer> future1 = queue.dequeueAsync(Duration.ofMillis(10));
+		CompletableFuture<Integer> future2 = queue.dequeueAsync();
+		assertEquals("Both readers should be waiting.", 2, queue.getReadersQueueCount());
+
+		try {
+			future1.get();
+			fail("future1.get() should have thrown.");
+		} catch (ExecutionException e) {
+			assertEquals("Cause should be TimeoutException", TimeoutException.class, e.getCause().getClass());
+		}
+		assertEquals("Only the reader which didn't time out should be waiting.", 1, queue.getReadersQueueCount());
+
+		queue.enqueueAndDispatch(num1);
+		assertEquals("future2 should be completed with the value of num", num1, future2.get());
+		assertEquals(0, queue.getReadersQueueCount());
+		assertEquals(0, queue.getPendingCount());
+	}
+	
+	@Test
+	public void timedOutReadersGiveBackTheirPlaceTest() throws Throwable {
+		// Polling an idle queue should not leave the readers which timed out behind
+		for (int i = 0; i < 50; i++) {
+			try {
+				queue.dequeueAsync(Duration.ofMillis(1)).get(5, TimeUnit.SECONDS);
+				fail("The reader should have timed out.");
+			} catch (ExecutionException e) {
+				assertEquals("Cause should be TimeoutException", TimeoutException.class, e.getCause().getClass());
+			}
+		}
+		assertEquals("The balance should be back to 0.", 0, queue.getBalance());
+		assertEquals("No reader should be left in the queue.", 0, queue.getQueuedReaderCount());
+
+		queue.enqueueAndDispatch(num1);
+		assertEquals(num1, queue.dequeueAsync().get(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void concurrentEnqueueAndDequeueTest() throws Throwable {
+		int threadCount = 8;
+		int itemsPerThread = 10000;
+		Thread[] threads = new Thread[threadCount];
+		CompletableFuture<?>[] results = new CompletableFuture<?>[threadCount * itemsPerThread];
+		AtomicIntegerArray received = new AtomicIntegerArray(threadCount * itemsPerThread);
+
+		for (int t = 0; t < threadCount; t++) {
+			int offset = t * itemsPerThread;
+			boolean readFirst = (t % 2) == 0;
+			threads[t] = new Thread(() -> {
+				for (int i = offset; i < offset + itemsPerThread; i++) {
+					CompletableFuture<Integer> result;
+					if (readFirst) {
+						result = queue.dequeueAsync();
+						queue.enqueueAndDispatch(i);
+					} else {
+						queue.enqueueAndDispatch(i);
+						result = queue.dequeueAsync();
+					}
+					results[i] = result.thenAccept(value -> received.incrementAndGet(value));
+				}
+			});
+			threads[t].start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		CompletableFuture.allOf(results).get(30, TimeUnit.SECONDS);
+
+		for (int i = 0; i < received.length(); i++) {
+			assertEquals("Every item should be received exactly once.", 1, received.get(i));
+		}
+		assertEquals(0, queue.getPendingCount());
+		assertEquals(0, queue.getReadersQueueCount());
+	}
+	
+	@Test
+	public void timedOutReadersExpireTogetherTest() throws Throwable {
+		CompletableFuture<?>[] timedReaders = new CompletableFuture<?>[100];
+		for (int i = 0; i < timedReaders.length; i++) {
+			timedReaders[i] = queue.dequeueAsync(Duration.ofMillis(20 + i % 10));
+		}
+		CompletableFuture<Integer> untimedReader = queue.dequeueAsync();
+
+		for (CompletableFuture<?> reader : timedReaders) {
+			try {
+				reader.get(5, TimeUnit.SECONDS);
+				fail("The timed reader should have timed out.");
+			} catch (ExecutionException e) {
+				assertEquals("Cause should be TimeoutException", TimeoutException.class, e.getCause().getClass());
+			}
+		}
+		assertFalse("The reader without a timeout should still be waiting.", untimedReader.isDone());
+		assertEquals(1, queue.getReadersQueueCount());
+
+		queue.enqueueAndDispatch(num1);
+		assertEquals(num1, untimedReader.get(5, TimeUnit.SECONDS));
+	}
 }
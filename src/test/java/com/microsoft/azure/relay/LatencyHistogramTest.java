@@ -0,0 +1,61 @@
+package com.microsoft.azure.relay;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void bucketsTest() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(TimeUnit.MICROSECONDS.toNanos(500));
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+		histogram.record(TimeUnit.MINUTES.toNanos(5));
+
+		long[] counts = histogram.getBucketCounts();
+		assertEquals("Under 1 ms", 1, counts[0]);
+		assertEquals("From 1 up to 2 ms", 1, counts[1]);
+		assertEquals("From 2 up to 4 ms", 1, counts[2]);
+		assertEquals("The longest latencies go to the last bucket", 1, counts[LatencyHistogram.BUCKETS - 1]);
+		assertEquals(4, histogram.getCount());
+		assertEquals(Duration.ofMinutes(5), histogram.getMax());
+		assertNull(LatencyHistogram.getBucketUpperBound(LatencyHistogram.BUCKETS - 1));
+	}
+
+	@Test
+	public void percentileTest() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(Duration.ZERO, histogram.getPercentile(99));
+
+		for (int i = 0; i < 99; i++) {
+			histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+
+		assertEquals(Duration.ofMillis(1), histogram.getPercentile(50));
+		assertEquals(Duration.ofMillis(1), histogram.getPercentile(99));
+		assertEquals(Duration.ofMillis(128), histogram.getPercentile(100));
+	}
+
+	@Test
+	public void concurrentRecordTest() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		CompletableFuture<?>[] tasks = new CompletableFuture<?>[4];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = CompletableFuture.runAsync(() -> {
+				for (int j = 0; j < 10000; j++) {
+					histogram.record(j);
+				}
+			});
+		}
+		CompletableFuture.allOf(tasks).join();
+		assertEquals(40000, histogram.getCount());
+		assertEquals(40000, histogram.getBucketCounts()[0]);
+	}
+}
@@ -0,0 +1,662 @@
+package com.microsoft.azure.relay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.api.WebSocketPartialListener;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.common.events.EventDriver;
+import org.eclipse.jetty.websocket.common.events.EventDriverFactory;
+import org.eclipse.jetty.websocket.common.events.EventDriverImpl;
+import org.eclipse.jetty.websocket.common.events.JettyListenerEventDriver;
+import org.eclipse.jetty.websocket.server.WebSocketHandler;
+import org.eclipse.jetty.websocket.server.WebSocketServerFactory;
+import org.eclipse.jetty.websocket.servlet.ServletUpgradeRequest;
+import org.eclipse.jetty.websocket.servlet.ServletUpgradeResponse;
+import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
+import org.json.JSONObject;
+
+/**
+ * An in-process stand-in for the Hybrid Connections service which speaks the $hc protocol over plain websockets
+ * on localhost, so that listeners and clients can be exercised without an Azure namespace. Point a listener or
+ * client at it with setEndpointOverride(getEndpoint()).
+ */
+class LocalRelayServer implements AutoCloseable {
+	static final Duration RENDEZVOUS_TIMEOUT = Duration.ofSeconds(30);
+	static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+	static final int MAX_CONTROL_CONNECTION_BODY_SIZE = 64 * 1024;
+	static final int MAX_FRAME_SIZE = 16 * 1024;
+	private static final int MAX_MESSAGE_SIZE = 64 * 1024 * 1024;
+
+	private final Server server;
+	private final ServerConnector connector;
+	private final Map<String, List<ControlSocket>> listeners = new ConcurrentHashMap<>();
+	private final Map<String, PendingConnection> pendingConnections = new ConcurrentHashMap<>();
+	private final Map<String, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+	private final AtomicInteger nextListener = new AtomicInteger();
+	private final AtomicLong tokenRenewals = new AtomicLong();
+
+	LocalRelayServer() {
+		this.server = new Server();
+		this.connector = new ServerConnector(this.server);
+		this.connector.setHost("localhost");
+		this.connector.setPort(0);
+		this.server.addConnector(this.connector);
+
+		WebSocketHandler webSocketHandler = new WebSocketHandler() {
+			@Override
+			public void configure(WebSocketServletFactory factory) {
+				factory.getPolicy().setMaxBinaryMessageSize(MAX_MESSAGE_SIZE);
+				factory.getPolicy().setMaxTextMessageSize(MAX_MESSAGE_SIZE);
+				factory.setCreator((request, response) -> createWebSocket(request, response));
+
+				// Let PartialListenerEventDriver drive the partial listeners before Jetty's own drivers get to them
+				EventDriverFactory eventDriverFactory = ((WebSocketServerFactory) factory).getEventDriverFactory();
+				List<EventDriverImpl> implementations = new ArrayList<>(eventDriverFactory.getImplementations());
+				eventDriverFactory.clearImplementations();
+				eventDriverFactory.addImplementation(new PartialListenerEventDriver.Impl());
+				implementations.forEach(eventDriverFactory::addImplementation);
+			}
+		};
+		webSocketHandler.setHandler(new AbstractHandler() {
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+					throws IOException {
+				baseRequest.setHandled(true);
+				handleHttpRequest(baseRequest, request, response);
+			}
+		});
+		this.server.setHandler(webSocketHandler);
+	}
+
+	/**
+	 * Starts the relay on a random port of localhost.
+	 */
+	LocalRelayServer start() throws Exception {
+		this.server.start();
+		return this;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			this.server.stop();
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Failed to stop the local relay.", e);
+		}
+	}
+
+	int getPort() {
+		return this.connector.getLocalPort();
+	}
+
+	/**
+	 * @return The websocket endpoint to be used as the endpoint override of listeners and clients.
+	 */
+	URI getEndpoint() {
+		return URI.create("ws://localhost:" + this.getPort());
+	}
+
+	/**
+	 * @return The address listeners and clients of the given entity should be created with.
+	 */
+	URI getAddress(String entityPath) {
+		return URI.create("sb://localhost/" + entityPath);
+	}
+
+	/**
+	 * @return The URI HTTP senders should send requests to for the given entity.
+	 */
+	URI getHttpUri(String entityPath) {
+		return URI.create("http://localhost:" + this.getPort() + "/" + entityPath);
+	}
+
+	int getListenerCount(String entityPath) {
+		List<ControlSocket> controlSockets = this.listeners.get(entityPath);
+		return (controlSockets == null) ? 0 : controlSockets.size();
+	}
+
+	long getTokenRenewals() {
+		return this.tokenRenewals.get();
+	}
+
+	private Object createWebSocket(ServletUpgradeRequest request, ServletUpgradeResponse response) {
+		String path = request.getRequestURI().getPath();
+		if (!path.startsWith(HybridConnectionConstants.HYBRIDCONNECTION_REQUEST_URI + "/")) {
+			return sendError(response, HttpStatus.NOT_FOUND_404, "Not a HybridConnection path: " + path);
+		}
+
+		String entityPath = path.substring(HybridConnectionConstants.HYBRIDCONNECTION_REQUEST_URI.length() + 1);
+		String action = getParameter(request, HybridConnectionConstants.ACTION);
+		String id = getParameter(request, HybridConnectionConstants.ID);
+
+		if (HybridConnectionConstants.Actions.LISTEN.equals(action)) {
+			if (request.getHeader(RelayConstants.SERVICEBUS_AUTHORIZATION_HEADER_NAME) == null) {
+				return sendError(response, HttpStatus.UNAUTHORIZED_401, "Missing " + RelayConstants.SERVICEBUS_AUTHORIZATION_HEADER_NAME);
+			}
+			// Registered as soon as the upgrade is accepted so that senders can find the listener once its open completes
+			ControlSocket controlSocket = new ControlSocket(entityPath);
+			this.listeners.computeIfAbsent(entityPath, key -> new CopyOnWriteArrayList<>()).add(controlSocket);
+			return controlSocket;
+		} else if (HybridConnectionConstants.Actions.CONNECT.equals(action)) {
+			return this.connect(entityPath, request, response);
+		} else if (HybridConnectionConstants.Actions.ACCEPT.equals(action)) {
+			return this.accept(id, request, response);
+		} else if (HybridConnectionConstants.Actions.REQUEST.equals(action)) {
+			PendingRequest pendingRequest = this.pendingRequests.get(id);
+			if (pendingRequest == null) {
+				return sendError(response, HttpStatus.NOT_FOUND_404, "No pending request with id " + id);
+			}
+			return new RequestSocket(pendingRequest);
+		}
+
+		return sendError(response, HttpStatus.BAD_REQUEST_400, "Unknown action: " + action);
+	}
+
+	/**
+	 * Sends an accept command to a listener of the entity and holds the upgrade of the sender until the listener
+	 * either accepts or rejects the rendezvous.
+	 */
+	private Object connect(String entityPath, ServletUpgradeRequest request, ServletUpgradeResponse response) {
+		ControlSocket controlSocket = this.nextListener(entityPath);
+		if (controlSocket == null) {
+			return sendError(response, HttpStatus.NOT_FOUND_404, "There are no listeners connected for the endpoint.");
+		}
+
+		String id = UUID.randomUUID().toString();
+		PendingConnection connection = new PendingConnection();
+		this.pendingConnections.put(id, connection);
+
+		try {
+			JSONObject connectHeaders = new JSONObject();
+			request.getHeaders().forEach((name, values) -> connectHeaders.put(name, String.join(",", values)));
+
+			JSONObject accept = new JSONObject()
+				.put("address", this.rendezvousAddress(entityPath, HybridConnectionConstants.Actions.ACCEPT, id))
+				.put("id", id)
+				.put("connectHeaders", connectHeaders)
+				.put("remoteEndpoint", remoteEndpoint(request.getRemoteAddress(), request.getRemotePort()));
+			controlSocket.send(new JSONObject().put(HybridConnectionConstants.Actions.ACCEPT, accept).toString(), null);
+
+			PendingConnection.Rejection rejection = connection.decision.get(RENDEZVOUS_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+			if (rejection != null) {
+				return sendError(response, rejection.statusCode, rejection.statusDescription);
+			}
+			return connection.senderSocket;
+		} catch (TimeoutException e) {
+			return sendError(response, HttpStatus.GATEWAY_TIMEOUT_504, "The listener did not accept the connection in time.");
+		} catch (Exception e) {
+			return sendError(response, HttpStatus.BAD_GATEWAY_502, e.toString());
+		} finally {
+			this.pendingConnections.remove(id);
+		}
+	}
+
+	private Object accept(String id, ServletUpgradeRequest request, ServletUpgradeResponse response) {
+		PendingConnection connection = this.pendingConnections.get(id);
+		if (connection == null) {
+			return sendError(response, HttpStatus.NOT_FOUND_404, "No pending connection with id " + id);
+		}
+
+		String statusCode = getParameter(request, HybridConnectionConstants.STATUS_CODE);
+		if (statusCode != null) {
+			connection.decision.complete(new PendingConnection.Rejection(
+				Integer.parseInt(statusCode), getParameter(request, HybridConnectionConstants.STATUS_DESCRIPTION)));
+			return new WebSocketAdapter();
+		}
+
+		connection.decision.complete(null);
+		return connection.listenerSocket;
+	}
+
+	/**
+	 * Relays an HTTP request to a listener of the entity the request path starts with. Small request bodies are sent
+	 * over the control connection, larger ones make the listener rendezvous to receive the request.
+	 */
+	private void handleHttpRequest(Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String path = request.getRequestURI();
+		String entityPath = this.findEntityPath(path);
+		ControlSocket controlSocket = (entityPath == null) ? null : this.nextListener(entityPath);
+		if (controlSocket == null) {
+			response.sendError(HttpStatus.NOT_FOUND_404, "There are no listeners connected for the endpoint.");
+			return;
+		}
+
+		byte[] requestBody = readAll(request.getInputStream());
+		String id = UUID.randomUUID().toString();
+		PendingRequest pendingRequest = new PendingRequest();
+		this.pendingRequests.put(id, pendingRequest);
+
+		try {
+			JSONObject requestHeaders = new JSONObject();
+			for (Enumeration<String> names = request.getHeaderNames(); names.hasMoreElements();) {
+				String name = names.nextElement();
+				requestHeaders.put(name, String.join(",", Collections.list(request.getHeaders(name))));
+			}
+
+			JSONObject requestCommand = new JSONObject()
+				.put("address", this.rendezvousAddress(entityPath, HybridConnectionConstants.Actions.REQUEST, id))
+				.put("id", id)
+				.put("requestTarget", (request.getQueryString() == null) ? path : path + "?" + request.getQueryString())
+				.put("method", request.getMethod())
+				.put("remoteEndpoint", remoteEndpoint(request.getRemoteAddr(), request.getRemotePort()))
+				.put("requestHeaders", requestHeaders);
+
+			if (requestBody.length <= MAX_CONTROL_CONNECTION_BODY_SIZE) {
+				requestCommand.put("body", requestBody.length > 0);
+				controlSocket.send(new JSONObject().put(HybridConnectionConstants.Actions.REQUEST, requestCommand).toString(),
+					(requestBody.length > 0) ? requestBody : null);
+			} else {
+				// The listener has to rendezvous to receive the request command with its body
+				pendingRequest.rendezvousCommand = new JSONObject()
+					.put(HybridConnectionConstants.Actions.REQUEST, new JSONObject(requestCommand.toString()).put("body", true))
+					.toString();
+				pendingRequest.rendezvousBody = requestBody;
+				controlSocket.send(new JSONObject().put(HybridConnectionConstants.Actions.REQUEST, requestCommand).toString(), null);
+			}
+
+			pendingRequest.completed.get(REQUEST_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			response.sendError(HttpStatus.GATEWAY_TIMEOUT_504, "The listener did not respond in time.");
+			return;
+		} catch (Exception e) {
+			response.sendError(HttpStatus.BAD_GATEWAY_502, e.toString());
+			return;
+		} finally {
+			this.pendingRequests.remove(id);
+		}
+
+		baseRequest.getResponse().setStatusWithReason(pendingRequest.statusCode, pendingRequest.statusDescription);
+		if (pendingRequest.responseHeaders != null) {
+			for (String name : pendingRequest.responseHeaders.keySet()) {
+				if (!"Content-Length".equalsIgnoreCase(name) && !"Transfer-Encoding".equalsIgnoreCase(name)) {
+					response.setHeader(name, pendingRequest.responseHeaders.optString(name));
+				}
+			}
+		}
+		response.setContentLength(pendingRequest.responseBody.size());
+		pendingRequest.responseBody.writeTo(response.getOutputStream());
+	}
+
+	private ControlSocket nextListener(String entityPath) {
+		List<ControlSocket> controlSockets = this.listeners.get(entityPath);
+		if (controlSockets == null || controlSockets.isEmpty()) {
+			return null;
+		}
+
+		try {
+			return controlSockets.get(Math.floorMod(this.nextListener.getAndIncrement(), controlSockets.size()));
+		} catch (IndexOutOfBoundsException e) {
+			// A listener went away in the meantime
+			return controlSockets.isEmpty() ? null : controlSockets.get(0);
+		}
+	}
+
+	private String findEntityPath(String requestPath) {
+		String longestMatch = null;
+		for (String entityPath : this.listeners.keySet()) {
+			String prefix = "/" + entityPath;
+			if ((requestPath.equals(prefix) || requestPath.startsWith(prefix + "/"))
+				&& (longestMatch == null || entityPath.length() > longestMatch.length())) {
+				longestMatch = entityPath;
+			}
+		}
+		return longestMatch;
+	}
+
+	private String rendezvousAddress(String entityPath, String action, String id) throws URISyntaxException {
+		return HybridConnectionUtil.buildUri("ws", "localhost", this.getPort(), entityPath, null, action, id).toString();
+	}
+
+	private static JSONObject remoteEndpoint(String address, int port) {
+		return new JSONObject().put("address", address).put("port", port);
+	}
+
+	private static String getParameter(ServletUpgradeRequest request, String name) {
+		List<String> values = request.getParameterMap().get(name);
+		return (values == null || values.isEmpty()) ? null : values.get(0);
+	}
+
+	private static Object sendError(ServletUpgradeResponse response, int statusCode, String statusDescription) {
+		try {
+			response.sendError(statusCode, statusDescription);
+		} catch (IOException e) {
+			// The sender is gone already
+		}
+		return null;
+	}
+
+	private static byte[] readAll(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = inputStream.read(buffer)) != -1) {
+			outputStream.write(buffer, 0, read);
+		}
+		return outputStream.toByteArray();
+	}
+
+	/**
+	 * Sends the bytes in frames of at most MAX_FRAME_SIZE like the service does, since the websockets of listeners
+	 * and clients reject single frames larger than their message buffer size.
+	 */
+	private static void sendFrames(RemoteEndpoint remote, ByteBuffer payload, boolean fin) throws IOException {
+		do {
+			ByteBuffer frame = payload.slice();
+			frame.limit(Math.min(frame.remaining(), MAX_FRAME_SIZE));
+			payload.position(payload.position() + frame.remaining());
+			remote.sendPartialBytes(frame, fin && !payload.hasRemaining());
+		} while (payload.hasRemaining());
+	}
+
+	private static int toSendableCloseCode(int statusCode) {
+		return (statusCode == StatusCode.NO_CODE || statusCode == StatusCode.NO_CLOSE || statusCode == StatusCode.FAILED_TLS_HANDSHAKE)
+			? StatusCode.NORMAL : statusCode;
+	}
+
+	/**
+	 * The control connection of a listener. Commands from the relay are sent as text messages, optionally followed by a
+	 * binary body, and response commands from the listener are correlated with the pending HTTP requests.
+	 */
+	private class ControlSocket extends WebSocketAdapter {
+		private final String entityPath;
+		private final CompletableFuture<Session> session = new CompletableFuture<>();
+		private PendingRequest pendingResponseBody;
+
+		ControlSocket(String entityPath) {
+			this.entityPath = entityPath;
+		}
+
+		synchronized void send(String command, byte[] body) throws IOException {
+			Session session;
+			try {
+				session = this.session.get(RENDEZVOUS_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+			} catch (Exception e) {
+				throw new IOException("The listener did not connect.", e);
+			}
+			if (!session.isOpen()) {
+				throw new IOException("The listener is not connected.");
+			}
+			session.getRemote().sendString(command);
+			if (body != null) {
+				sendFrames(session.getRemote(), ByteBuffer.wrap(body), true);
+			}
+		}
+
+		@Override
+		public void onWebSocketConnect(Session session) {
+			super.onWebSocketConnect(session);
+			this.session.complete(session);
+		}
+
+		@Override
+		public void onWebSocketText(String message) {
+			JSONObject command = new JSONObject(message);
+			if (command.has("renewToken")) {
+				tokenRenewals.incrementAndGet();
+			} else if (command.has(HybridConnectionConstants.Actions.RESPONSE)) {
+				JSONObject responseCommand = command.getJSONObject(HybridConnectionConstants.Actions.RESPONSE);
+				PendingRequest pendingRequest = pendingRequests.get(responseCommand.optString("requestId", responseCommand.optString("id")));
+				if (pendingRequest != null) {
+					pendingRequest.onResponseCommand(responseCommand);
+					if (pendingRequest.responseHasBody) {
+						this.pendingResponseBody = pendingRequest;
+					} else {
+						pendingRequest.completed.complete(null);
+					}
+				}
+			}
+		}
+
+		@Override
+		public void onWebSocketBinary(byte[] payload, int offset, int length) {
+			PendingRequest pendingRequest = this.pendingResponseBody;
+			this.pendingResponseBody = null;
+			if (pendingRequest != null) {
+				pendingRequest.responseBody.write(payload, offset, length);
+				pendingRequest.completed.complete(null);
+			}
+		}
+
+		@Override
+		public void onWebSocketClose(int statusCode, String reason) {
+			super.onWebSocketClose(statusCode, reason);
+			List<ControlSocket> controlSockets = listeners.get(this.entityPath);
+			if (controlSockets != null) {
+				controlSockets.remove(this);
+			}
+		}
+	}
+
+	/**
+	 * Jetty 9.4.12 fails the continuation frames of a binary message for a WebSocketPartialListener, since only
+	 * whole message listeners keep track of the message in progress. This driver hands them to the listener as
+	 * further parts of the message instead.
+	 */
+	private static class PartialListenerEventDriver extends JettyListenerEventDriver {
+		private final WebSocketPartialListener listener;
+		private boolean binaryMessageInProgress;
+
+		PartialListenerEventDriver(WebSocketPolicy policy, WebSocketPartialListener listener) {
+			super(policy, listener);
+			this.listener = listener;
+		}
+
+		@Override
+		public void onBinaryFrame(ByteBuffer buffer, boolean fin) throws IOException {
+			this.binaryMessageInProgress = !fin;
+			super.onBinaryFrame(buffer, fin);
+		}
+
+		@Override
+		public void onContinuationFrame(ByteBuffer buffer, boolean fin) throws IOException {
+			if (!this.binaryMessageInProgress) {
+				super.onContinuationFrame(buffer, fin);
+				return;
+			}
+
+			this.binaryMessageInProgress = !fin;
+			this.listener.onWebSocketPartialBinary((buffer != null) ? buffer.slice().asReadOnlyBuffer() : ByteBuffer.allocate(0), fin);
+		}
+
+		static class Impl implements EventDriverImpl {
+			@Override
+			public EventDriver create(Object websocket, WebSocketPolicy policy) {
+				return new PartialListenerEventDriver(policy, (WebSocketPartialListener) websocket);
+			}
+
+			@Override
+			public String describeRule() {
+				return "class implements " + WebSocketPartialListener.class.getName();
+			}
+
+			@Override
+			public boolean supports(Object websocket) {
+				return websocket instanceof WebSocketPartialListener;
+			}
+		}
+	}
+
+	/**
+	 * A rendezvous between a websocket sender and a listener waiting for the listener to accept or reject.
+	 */
+	private static class PendingConnection {
+		final CompletableFuture<Rejection> decision = new CompletableFuture<>();
+		final ForwardingSocket senderSocket = new ForwardingSocket();
+		final ForwardingSocket listenerSocket = new ForwardingSocket();
+
+		PendingConnection() {
+			this.senderSocket.peer = this.listenerSocket;
+			this.listenerSocket.peer = this.senderSocket;
+		}
+
+		static class Rejection {
+			final int statusCode;
+			final String statusDescription;
+
+			Rejection(int statusCode, String statusDescription) {
+				this.statusCode = statusCode;
+				this.statusDescription = statusDescription;
+			}
+		}
+	}
+
+	/**
+	 * One half of an accepted rendezvous, forwarding every frame and the close to its peer as it arrives.
+	 */
+	private static class ForwardingSocket implements WebSocketPartialListener {
+		final CompletableFuture<Session> session = new CompletableFuture<>();
+		ForwardingSocket peer;
+
+		@Override
+		public void onWebSocketConnect(Session session) {
+			this.session.complete(session);
+		}
+
+		@Override
+		public void onWebSocketPartialBinary(ByteBuffer payload, boolean fin) {
+			try {
+				sendFrames(this.peer.awaitSession().getRemote(), payload, fin);
+			} catch (Exception e) {
+				this.abort(e);
+			}
+		}
+
+		@Override
+		public void onWebSocketPartialText(String payload, boolean fin) {
+			try {
+				this.peer.awaitSession().getRemote().sendPartialString(payload, fin);
+			} catch (Exception e) {
+				this.abort(e);
+			}
+		}
+
+		@Override
+		public void onWebSocketClose(int statusCode, String reason) {
+			this.peer.session.thenAccept(peerSession -> peerSession.close(toSendableCloseCode(statusCode), reason));
+		}
+
+		@Override
+		public void onWebSocketError(Throwable cause) {
+			this.peer.session.thenAccept(peerSession -> peerSession.close(StatusCode.SERVER_ERROR, cause.toString()));
+		}
+
+		private Session awaitSession() throws Exception {
+			return this.session.get(RENDEZVOUS_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		private void abort(Exception e) {
+			this.session.thenAccept(session -> session.close(StatusCode.SERVER_ERROR, e.toString()));
+		}
+	}
+
+	/**
+	 * An HTTP request waiting for the response of the listener.
+	 */
+	private static class PendingRequest {
+		final CompletableFuture<Void> completed = new CompletableFuture<>();
+		final ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+		volatile String rendezvousCommand;
+		volatile byte[] rendezvousBody;
+		volatile int statusCode = HttpStatus.OK_200;
+		volatile String statusDescription;
+		volatile JSONObject responseHeaders;
+		volatile boolean responseHasBody;
+
+		void onResponseCommand(JSONObject responseCommand) {
+			this.statusCode = responseCommand.optInt("statusCode", HttpStatus.OK_200);
+			this.statusDescription = responseCommand.optString("statusDescription", null);
+			this.responseHeaders = responseCommand.optJSONObject("responseHeaders");
+			this.responseHasBody = responseCommand.optBoolean("body");
+		}
+	}
+
+	/**
+	 * The rendezvous connection of a listener for an HTTP request. Sends the request if it was too large for the
+	 * control connection, and receives the response command followed by the response body until the listener closes.
+	 */
+	private static class RequestSocket implements WebSocketPartialListener {
+		private final PendingRequest pendingRequest;
+		private final StringBuilder text = new StringBuilder();
+
+		RequestSocket(PendingRequest pendingRequest) {
+			this.pendingRequest = pendingRequest;
+		}
+
+		@Override
+		public void onWebSocketConnect(Session session) {
+			String command = this.pendingRequest.rendezvousCommand;
+			if (command != null) {
+				try {
+					session.getRemote().sendString(command);
+					sendFrames(session.getRemote(), ByteBuffer.wrap(this.pendingRequest.rendezvousBody), true);
+				} catch (IOException e) {
+					this.pendingRequest.completed.completeExceptionally(e);
+				}
+			}
+		}
+
+		@Override
+		public void onWebSocketPartialText(String payload, boolean fin) {
+			this.text.append(payload);
+			if (fin) {
+				JSONObject command = new JSONObject(this.text.toString());
+				this.text.setLength(0);
+				if (command.has(HybridConnectionConstants.Actions.RESPONSE)) {
+					this.pendingRequest.onResponseCommand(command.getJSONObject(HybridConnectionConstants.Actions.RESPONSE));
+				}
+			}
+		}
+
+		@Override
+		public void onWebSocketPartialBinary(ByteBuffer payload, boolean fin) {
+			byte[] bytes = new byte[payload.remaining()];
+			payload.get(bytes);
+			synchronized (this.pendingRequest.responseBody) {
+				this.pendingRequest.responseBody.write(bytes, 0, bytes.length);
+			}
+		}
+
+		@Override
+		public void onWebSocketClose(int statusCode, String reason) {
+			this.pendingRequest.completed.complete(null);
+		}
+
+		@Override
+		public void onWebSocketError(Throwable cause) {
+			this.pendingRequest.completed.completeExceptionally(cause);
+		}
+	}
+}
@@ -0,0 +1,636 @@
+package com.microsoft.azure.relay;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LocalRelayTest {
+	private static final int STATUS_CODE = HttpStatus.ACCEPTED_202;
+	private static final String STATUS_DESCRIPTION = "OK";
+	private static final byte[] SMALL_BYTES = getTestBytes(256);
+	private static final byte[] LARGE_BYTES = getTestBytes(256 * 1024);
+
+	private static LocalRelayServer relay;
+	private static int entityCount = 0;
+	private String entityPath;
+	private TokenProvider tokenProvider = TokenProvider.createSharedAccessSignatureTokenProvider("keyName", "key");
+	private HybridConnectionListener listener;
+	private HybridConnectionClient client;
+
+	@BeforeClass
+	public static void startRelay() throws Exception {
+		relay = new LocalRelayServer().start();
+	}
+
+	@AfterClass
+	public static void stopRelay() throws Exception {
+		relay.close();
+	}
+
+	@Before
+	public void openListener() {
+		// Each test gets its own entity so listeners of earlier tests which are still going away don't interfere
+		entityPath = "local" + (++entityCount);
+		listener = new HybridConnectionListener(relay.getAddress(entityPath), tokenProvider);
+		listener.setEndpointOverride(relay.getEndpoint());
+		listener.openAsync(Duration.ofSeconds(15)).join();
+		client = new HybridConnectionClient(relay.getAddress(entityPath), tokenProvider);
+		client.setEndpointOverride(relay.getEndpoint());
+	}
+
+	@After
+	public void closeListener() {
+		listener.close();
+	}
+
+	@Test
+	public void listenerRegistersTest() {
+		assertTrue("Listener failed to open against the local relay.", listener.isOnline());
+		assertEquals("The local relay should have one listener for the entity.", 1, relay.getListenerCount(entityPath));
+	}
+
+	@Test
+	public void websocketSendReceiveTest() {
+		CompletableFuture<Void> listenerTask = listener.acceptConnectionAsync().thenCompose(channel -> {
+			return channel.readAsync().thenCompose(received -> channel.writeAsync(received)).thenCompose($void -> channel.closeAsync());
+		});
+
+		HybridConnectionChannel channel = client.createConnectionAsync().join();
+		channel.writeAsync(ByteBuffer.wrap(LARGE_BYTES)).join();
+		ByteBuffer received = channel.readAsync(Duration.ofSeconds(15)).join();
+		assertEquals("The echoed message should be received unchanged.", ByteBuffer.wrap(LARGE_BYTES), received);
+		listenerTask.join();
+		channel.closeAsync().join();
+	}
+
+	@Test
+	public void websocketSendReceiveWithOwnExecutorTest() throws Exception {
+		ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+		HybridConnectionListener ownListener = new HybridConnectionListener(relay.getAddress(entityPath + "own"), tokenProvider);
+		try {
+			ownListener.setExecutor(executor);
+			ownListener.setEndpointOverride(relay.getEndpoint());
+			ownListener.openAsync(Duration.ofSeconds(15)).join();
+			CompletableFuture<Void> listenerTask = ownListener.acceptConnectionAsync().thenCompose(channel -> {
+				return channel.readAsync().thenCompose(received -> channel.writeAsync(received)).thenCompose($void -> channel.closeAsync());
+			});
+
+			HybridConnectionClient ownClient = new HybridConnectionClient(relay.getAddress(entityPath + "own"), tokenProvider);
+			ownClient.setExecutor(executor);
+			ownClient.setEndpointOverride(relay.getEndpoint());
+			HybridConnectionChannel channel = ownClient.createConnectionAsync().join();
+			channel.writeAsync(ByteBuffer.wrap(SMALL_BYTES)).join();
+			assertEquals(ByteBuffer.wrap(SMALL_BYTES), channel.readAsync(Duration.ofSeconds(15)).join());
+			listenerTask.join();
+			channel.closeAsync().join();
+			assertTrue("The listener should report the pool size of its own executor.", ownListener.getStatistics().getExecutorPoolSize() > 0);
+			assertNull(ownListener.getStatistics().getExecutorMaxTaskLatency());
+
+			try {
+				ownListener.setExecutor(executor);
+				fail("The executor cannot change once the listener is open.");
+			} catch (RuntimeException e) {
+				// Expected
+			}
+		} finally {
+			ownListener.close();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void websocketCloseWhileReadSuspendedTest() throws Exception {
+		listener.setMaxBufferedBytes(SMALL_BYTES.length * 4);
+		listener.setMaxBufferedFragments(4);
+		CompletableFuture<HybridConnectionChannel> acceptTask = listener.acceptConnectionAsync();
+		HybridConnectionChannel channel = client.createConnectionAsync().join();
+		WebSocketChannel accepted = (WebSocketChannel) acceptTask.join();
+
+		// Nothing reads on the listener side, so it stops reading from the socket once the limits are reached
+		for (int i = 0; i < 8; i++) {
+			channel.writeAsync(ByteBuffer.wrap(SMALL_BYTES)).join();
+		}
+		for (int i = 0; i < 100 && !accepted.isReadSuspended(); i++) {
+			Thread.sleep(50);
+		}
+		assertTrue("The listener side should have suspended reading.", accepted.isReadSuspended());
+
+		// The reply to the close has to be read, rather than the close waiting for the idle timeout
+		accepted.closeAsync().get(10, TimeUnit.SECONDS);
+		assertFalse(accepted.isReadSuspended());
+		channel.closeAsync().get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void websocketRejectTest() {
+		listener.setAcceptHandler(context -> {
+			context.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED_401);
+			context.getResponse().setStatusDescription("Rejected");
+			return false;
+		});
+
+		try {
+			client.createConnectionAsync().join();
+			fail("Connecting should fail when the listener rejects the connection.");
+		} catch (CompletionException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void websocketAcceptBacklogFullTest() throws Exception {
+		listener.setAcceptBacklog(1);
+		HybridConnectionChannel waiting = client.createConnectionAsync().join();
+		assertEquals(1, listener.getStatistics().getAcceptBacklogDepth());
+
+		try {
+			client.createConnectionAsync().join();
+			fail("Connecting should fail while the accept backlog is full.");
+		} catch (CompletionException e) {
+			// Expected
+		}
+		assertEquals(1, listener.getStatistics().getAcceptsRejected());
+
+		HybridConnectionChannel accepted = listener.acceptConnectionAsync().join();
+		assertEquals("Accepting should free the place in the backlog.", 0, listener.getStatistics().getAcceptBacklogDepth());
+		HybridConnectionChannel next = client.createConnectionAsync().join();
+		listener.acceptConnectionAsync().join().closeAsync().join();
+		next.closeAsync().join();
+		accepted.closeAsync().join();
+		waiting.closeAsync().join();
+	}
+
+	@Test
+	public void websocketConcurrentRendezvousLimitTest() throws Exception {
+		HybridConnectionListener limitedListener = new HybridConnectionListener(relay.getAddress(entityPath + "rendezvous"), tokenProvider);
+		try {
+			limitedListener.setMaxConcurrentRendezvous(1);
+			limitedListener.setAcceptTimeout(Duration.ofSeconds(10));
+			limitedListener.setEndpointOverride(relay.getEndpoint());
+			limitedListener.openAsync(Duration.ofSeconds(15)).join();
+
+			HybridConnectionClient limitedClient = new HybridConnectionClient(relay.getAddress(entityPath + "rendezvous"), tokenProvider);
+			limitedClient.setEndpointOverride(relay.getEndpoint());
+			int connectionCount = 4;
+			List<CompletableFuture<HybridConnectionChannel>> senders = new ArrayList<CompletableFuture<HybridConnectionChannel>>();
+			for (int i = 0; i < connectionCount; i++) {
+				senders.add(limitedClient.createConnectionAsync());
+			}
+			HybridConnectionChannel[] accepted = new HybridConnectionChannel[connectionCount];
+			for (int i = 0; i < connectionCount; i++) {
+				accepted[i] = limitedListener.acceptConnectionAsync().join();
+			}
+			CompletableFuture.allOf(senders.toArray(new CompletableFuture<?>[0])).join();
+			for (int i = 0; i < connectionCount; i++) {
+				senders.get(i).join().closeAsync().join();
+				accepted[i].closeAsync().join();
+			}
+
+			LatencyHistogram acceptLatency = limitedListener.getStatistics().getAcceptLatency();
+			assertEquals("Every accepted connection should be timed.", connectionCount, acceptLatency.getCount());
+			assertTrue(acceptLatency.getMax().compareTo(acceptLatency.getAverage()) >= 0);
+			assertEquals(0, limitedListener.getStatistics().getRendezvousQueueLength());
+		} finally {
+			limitedListener.close();
+		}
+	}
+
+	@Test
+	public void httpSmallRequestAndSmallResponseTest() throws IOException {
+		listener.setRequestHandler(context -> handleHttpRequest(context, SMALL_BYTES, SMALL_BYTES));
+		sendHttpRequest(SMALL_BYTES, SMALL_BYTES);
+	}
+
+	@Test
+	public void httpLargeRequestAndLargeResponseTest() throws IOException {
+		listener.setRequestHandler(context -> handleHttpRequest(context, LARGE_BYTES, LARGE_BYTES));
+		sendHttpRequest(LARGE_BYTES, LARGE_BYTES);
+	}
+
+	@Test
+	public void httpResponseWithoutReadingLargeRequestTest() throws Exception {
+		// The handler answers before the body arrived, and reading of the rendezvous is suspended behind it
+		listener.setMaxBufferedBytes(SMALL_BYTES.length * 4);
+		AtomicReference<RequestBodyStream> requestStream = new AtomicReference<RequestBodyStream>();
+		listener.setRequestHandler(context -> {
+			requestStream.set(context.getRequest().getInputStream());
+			RelayedHttpListenerResponse response = context.getResponse();
+			response.setStatusCode(STATUS_CODE);
+			response.setStatusDescription(STATUS_DESCRIPTION);
+			response.getOutputStream().writeAsync(SMALL_BYTES, 0, SMALL_BYTES.length)
+				.thenCompose($void -> response.closeAsync());
+		});
+
+		CompletableFuture.runAsync(() -> {
+			try {
+				sendHttpRequest(LARGE_BYTES, SMALL_BYTES);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}).get(15, TimeUnit.SECONDS);
+		awaitNoRequestsInFlight(listener);
+		assertEquals("The response should have been closed.", 0, listener.getStatistics().getRequestsInFlight());
+		assertEquals("Closing the response should have discarded the request body.", -1, requestStream.get().read());
+	}
+
+	@Test
+	public void httpControlResponseBodySizeTest() throws Exception {
+		HybridConnectionListenerStatistics stats = listener.getStatistics();
+		listener.setRequestHandler(context -> handleHttpRequest(context, SMALL_BYTES, SMALL_BYTES));
+		sendHttpRequest(SMALL_BYTES, SMALL_BYTES);
+		awaitNoRequestsInFlight(listener);
+		assertEquals("A small response should go over the control connection.", 1, stats.getResponsesOverControl());
+		assertEquals(0, stats.getResponsesOverRendezvous());
+
+		listener.setMaxControlResponseBodySize(SMALL_BYTES.length - 1);
+		sendHttpRequest(SMALL_BYTES, SMALL_BYTES);
+		awaitNoRequestsInFlight(listener);
+		assertEquals("A response over the limit should go over a rendezvous connection.", 1, stats.getResponsesOverRendezvous());
+		assertEquals(1, stats.getResponsesOverControl());
+	}
+
+	@Test
+	public void httpResponseBuffersArePooledTest() throws Exception {
+		BufferPool pool = new BufferPool();
+		listener.setBufferPool(pool);
+		listener.setRequestHandler(context -> handleHttpRequest(context, SMALL_BYTES, SMALL_BYTES));
+		sendHttpRequest(SMALL_BYTES, SMALL_BYTES);
+		awaitNoRequestsInFlight(listener);
+		sendHttpRequest(SMALL_BYTES, SMALL_BYTES);
+		awaitNoRequestsInFlight(listener);
+		assertTrue("The second response should reuse the buffer of the first.", pool.getHits() >= 1);
+	}
+
+	@Test
+	public void httpAsyncEchoTest() throws IOException {
+		// The handler returns right away and the response completes without any thread blocking on it
+		listener.setRequestHandler(context -> {
+			RelayedHttpListenerResponse response = context.getResponse();
+			response.setStatusCode(STATUS_CODE);
+			response.setStatusDescription(STATUS_DESCRIPTION);
+			response.getOutputStream().writeAllAsync(context.getRequest().getInputStream()::readAsync)
+				.thenCompose($void -> response.closeAsync());
+		});
+		sendHttpRequest(SMALL_BYTES, SMALL_BYTES);
+		sendHttpRequest(LARGE_BYTES, LARGE_BYTES);
+	}
+
+	@Test
+	public void httpResponseFromChannelTest() throws IOException {
+		listener.setRequestHandler(context -> {
+			RelayedHttpListenerResponse response = context.getResponse();
+			response.setStatusCode(STATUS_CODE);
+			response.setStatusDescription(STATUS_DESCRIPTION);
+			response.getOutputStream().writeAllAsync(Channels.newChannel(new ByteArrayInputStream(LARGE_BYTES)))
+				.thenCompose($void -> response.closeAsync());
+		});
+		sendHttpRequest(SMALL_BYTES, LARGE_BYTES);
+	}
+
+	@Test
+	public void httpSendFileTest() throws IOException {
+		// Several chunks of the file, starting and ending mid-chunk
+		byte[] contents = new byte[5 * 64 * 1024];
+		new Random().nextBytes(contents);
+		Path file = Files.createTempFile("relay", ".bin");
+		try {
+			Files.write(file, contents);
+			int offset = 1000;
+			int length = contents.length - 2 * offset;
+			listener.setRequestHandler(context -> {
+				RelayedHttpListenerResponse response = context.getResponse();
+				response.setStatusCode(STATUS_CODE);
+				response.setStatusDescription(STATUS_DESCRIPTION);
+				response.sendFileAsync(file, offset, length).thenCompose($void -> response.closeAsync());
+			});
+			sendHttpRequest(SMALL_BYTES, Arrays.copyOfRange(contents, offset, offset + length));
+
+			// A range small enough for the control connection
+			listener.setRequestHandler(context -> {
+				RelayedHttpListenerResponse response = context.getResponse();
+				response.setStatusCode(STATUS_CODE);
+				response.setStatusDescription(STATUS_DESCRIPTION);
+				response.sendFileAsync(file, offset, SMALL_BYTES.length).thenCompose($void -> response.closeAsync());
+			});
+			sendHttpRequest(SMALL_BYTES, Arrays.copyOfRange(contents, offset, offset + SMALL_BYTES.length));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void httpRendezvousRequestsDoNotExhaustThreadsTest() throws IOException {
+		// Request handlers which close their response must not hold on to the websocket threads of the rendezvous
+		listener.setRequestHandler(context -> handleHttpRequest(context, LARGE_BYTES, SMALL_BYTES));
+		for (int i = 0; i <= SharedWebSocketContainer.DEFAULT_MAX_THREADS; i++) {
+			sendHttpRequest(LARGE_BYTES, SMALL_BYTES);
+		}
+	}
+
+	@Test
+	public void requestHandlersRunOnHandlerExecutorByDefaultTest() throws IOException {
+		AtomicReference<String> requestThread = new AtomicReference<String>();
+		listener.setRequestHandler(context -> {
+			requestThread.set(Thread.currentThread().getName());
+			handleHttpRequest(context, SMALL_BYTES, SMALL_BYTES);
+		});
+		sendHttpRequest(SMALL_BYTES, SMALL_BYTES);
+		assertTrue("The request handler should run on the shared handler executor.", requestThread.get().startsWith("relayhandler"));
+		assertSame(HybridConnectionListener.HANDLER_EXECUTOR, listener.getHandlerExecutor());
+	}
+
+	@Test
+	public void concurrentBlockingWriteHandlersTest() throws Exception {
+		// More handlers than the listener executor has threads block in write at the same time, while the sends
+		// they wait for need that executor
+		int requestCount = HybridConnectionListener.EXECUTOR.getCorePoolSize() + 2;
+		CountDownLatch allHandlersEntered = new CountDownLatch(requestCount);
+		listener.setRequestHandler(context -> {
+			RelayedHttpListenerResponse response = context.getResponse();
+			try {
+				allHandlersEntered.countDown();
+				allHandlersEntered.await(15, TimeUnit.SECONDS);
+				response.setStatusCode(STATUS_CODE);
+				response.setStatusDescription(STATUS_DESCRIPTION);
+				response.getOutputStream().write(LARGE_BYTES);
+			} catch (IOException | InterruptedException e) {
+				fail(e.getMessage());
+			} finally {
+				response.close();
+			}
+		});
+
+		ExecutorService senders = Executors.newFixedThreadPool(requestCount);
+		try {
+			List<Future<?>> requests = new ArrayList<Future<?>>();
+			for (int i = 0; i < requestCount; i++) {
+				requests.add(senders.submit(() -> {
+					sendHttpRequest(SMALL_BYTES, LARGE_BYTES);
+					return null;
+				}));
+			}
+			for (Future<?> request : requests) {
+				request.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			senders.shutdownNow();
+		}
+	}
+
+	@Test
+	public void blockingResponseCallsOnListenerExecutorFailTest() throws IOException {
+		AtomicReference<Throwable> writeException = new AtomicReference<Throwable>();
+		AtomicReference<Throwable> closeException = new AtomicReference<Throwable>();
+		listener.setRequestHandler(context -> {
+			RelayedHttpListenerResponse response = context.getResponse();
+			response.setStatusCode(STATUS_CODE);
+			response.setStatusDescription(STATUS_DESCRIPTION);
+			try {
+				listener.getExecutor().submit(() -> {
+					response.getOutputStream().write(SMALL_BYTES);
+					return null;
+				}).get(15, TimeUnit.SECONDS);
+			} catch (Exception e) {
+				writeException.set(e.getCause());
+			}
+			try {
+				listener.getExecutor().submit(() -> response.close()).get(15, TimeUnit.SECONDS);
+			} catch (Exception e) {
+				closeException.set(e.getCause());
+			}
+			response.closeAsync();
+		});
+		sendHttpRequest(SMALL_BYTES, new byte[0]);
+		assertTrue("A blocking write on the listener executor should fail.", writeException.get() instanceof IllegalStateException);
+		assertTrue("A blocking close on the listener executor should fail.", closeException.get() instanceof IllegalStateException);
+	}
+
+	@Test
+	public void handlersRunOnHandlerExecutorTest() throws Exception {
+		ExecutorService handlerExecutor = Executors.newCachedThreadPool(runnable -> new Thread(runnable, "test-handler"));
+		AtomicReference<String> acceptThread = new AtomicReference<String>();
+		AtomicReference<String> requestThread = new AtomicReference<String>();
+		try {
+			listener.setHandlerExecutor(handlerExecutor);
+			listener.setAcceptHandler(context -> {
+				acceptThread.set(Thread.currentThread().getName());
+				return true;
+			});
+			listener.setRequestHandler(context -> {
+				requestThread.set(Thread.currentThread().getName());
+				handleHttpRequest(context, LARGE_BYTES, SMALL_BYTES);
+			});
+
+			CompletableFuture<HybridConnectionChannel> acceptTask = listener.acceptConnectionAsync();
+			HybridConnectionChannel channel = client.createConnectionAsync().join();
+			acceptTask.join().closeAsync().join();
+			channel.closeAsync().join();
+			assertEquals("The accept handler should run on the handler executor.", "test-handler", acceptThread.get());
+
+			sendHttpRequest(LARGE_BYTES, SMALL_BYTES);
+			assertEquals("The request handler should run on the handler executor.", "test-handler", requestThread.get());
+		} finally {
+			handlerExecutor.shutdown();
+		}
+	}
+
+	@Test
+	public void virtualThreadHandlersTest() throws Exception {
+		if (!VirtualThreads.isSupported()) {
+			try {
+				listener.setVirtualThreadHandlers(true);
+				fail("Virtual thread handlers cannot be enabled without virtual threads.");
+			} catch (UnsupportedOperationException e) {
+				assertFalse(listener.isVirtualThreadHandlers());
+				assertSame(HybridConnectionListener.HANDLER_EXECUTOR, listener.getHandlerExecutor());
+			}
+			return;
+		}
+
+		AtomicReference<Thread> requestThread = new AtomicReference<Thread>();
+		listener.setVirtualThreadHandlers(true);
+		assertTrue(listener.isVirtualThreadHandlers());
+		listener.setRequestHandler(context -> {
+			requestThread.set(Thread.currentThread());
+			handleHttpRequest(context, SMALL_BYTES, SMALL_BYTES);
+		});
+		sendHttpRequest(SMALL_BYTES, SMALL_BYTES);
+		assertTrue("The request handler should run on a virtual thread.", (Boolean) Thread.class.getMethod("isVirtual").invoke(requestThread.get()));
+
+		listener.setVirtualThreadHandlers(false);
+		assertSame(HybridConnectionListener.HANDLER_EXECUTOR, listener.getHandlerExecutor());
+	}
+
+	@Test
+	public void httpRequestsOverLimitAreRejectedTest() throws Exception {
+		HybridConnectionListener limitedListener = new HybridConnectionListener(relay.getAddress(entityPath + "limited"), tokenProvider);
+		CountDownLatch handlerEntered = new CountDownLatch(1);
+		CountDownLatch handlerRelease = new CountDownLatch(1);
+		try {
+			limitedListener.setMaxConcurrentRequests(1);
+			limitedListener.setEndpointOverride(relay.getEndpoint());
+			limitedListener.setRequestHandler(context -> {
+				handlerEntered.countDown();
+				try {
+					handlerRelease.await(15, TimeUnit.SECONDS);
+				} catch (InterruptedException e) { }
+				handleHttpRequest(context, SMALL_BYTES, SMALL_BYTES);
+			});
+			limitedListener.openAsync(Duration.ofSeconds(15)).join();
+
+			CompletableFuture<Integer> firstRequest = CompletableFuture.supplyAsync(() -> postForStatus(entityPath + "limited"));
+			assertTrue("The first request should reach the handler.", handlerEntered.await(15, TimeUnit.SECONDS));
+			assertEquals("The request over the limit should be rejected.", HttpStatus.SERVICE_UNAVAILABLE_503, postForStatus(entityPath + "limited"));
+
+			handlerRelease.countDown();
+			assertEquals(STATUS_CODE, (int) firstRequest.get(15, TimeUnit.SECONDS));
+			awaitNoRequestsInFlight(limitedListener);
+			assertEquals("A request should be admitted once the first one finished.", STATUS_CODE, postForStatus(entityPath + "limited"));
+
+			awaitNoRequestsInFlight(limitedListener);
+			HybridConnectionListenerStatistics statistics = limitedListener.getStatistics();
+			assertEquals(2, statistics.getRequestsAdmitted());
+			assertEquals(1, statistics.getRequestsRejected());
+			assertEquals(0, statistics.getRequestsQueued());
+			assertEquals(0, statistics.getRequestsInFlight());
+		} finally {
+			handlerRelease.countDown();
+			limitedListener.close();
+		}
+	}
+
+	@Test
+	public void httpResponseNeverClosedReleasesAdmissionTest() throws Exception {
+		RelayConnectionStringBuilder builder = new RelayConnectionStringBuilder();
+		builder.setEndpoint(relay.getAddress(""));
+		builder.setEntityPath(entityPath + "unclosed");
+		builder.setSharedAccessKeyName("keyName");
+		builder.setSharedAccessKey("key");
+		builder.setOperationTimeout(Duration.ofSeconds(2));
+		HybridConnectionListener limitedListener = new HybridConnectionListener(builder.toString());
+		CountDownLatch firstHandlerReturned = new CountDownLatch(1);
+		try {
+			limitedListener.setMaxConcurrentRequests(1);
+			limitedListener.setEndpointOverride(relay.getEndpoint());
+			limitedListener.setRequestHandler(context -> {
+				if (firstHandlerReturned.getCount() > 0) {
+					// Returns without ever closing the response
+					firstHandlerReturned.countDown();
+					return;
+				}
+				handleHttpRequest(context, SMALL_BYTES, SMALL_BYTES);
+			});
+			limitedListener.openAsync(Duration.ofSeconds(15)).join();
+
+			CompletableFuture.runAsync(() -> postForStatus(entityPath + "unclosed"));
+			assertTrue("The first request should reach the handler.", firstHandlerReturned.await(15, TimeUnit.SECONDS));
+			awaitNoRequestsInFlight(limitedListener);
+			assertEquals("The unclosed request should stop counting after the operation timeout.", 0, limitedListener.getStatistics().getRequestsInFlight());
+			assertEquals("The next request should be admitted.", STATUS_CODE, postForStatus(entityPath + "unclosed"));
+		} finally {
+			limitedListener.close();
+		}
+	}
+
+	private static void handleHttpRequest(RelayedHttpListenerContext context, byte[] msgExpected, byte[] msgToSend) {
+		RelayedHttpListenerResponse response = context.getResponse();
+		try {
+			byte[] received = readBytesFromStream(context.getRequest().getInputStream());
+			assertTrue("Listener did not receive the expected request body.", Arrays.equals(msgExpected, received));
+			response.setStatusCode(STATUS_CODE);
+			response.setStatusDescription(STATUS_DESCRIPTION);
+			response.getOutputStream().writeAsync(msgToSend, 0, msgToSend.length).join();
+		} catch (IOException e) {
+			fail(e.getMessage());
+		} finally {
+			response.close();
+		}
+	}
+
+	private void sendHttpRequest(byte[] msgToSend, byte[] msgExpected) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) relay.getHttpUri(entityPath).resolve(entityPath + "/path").toURL().openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(msgToSend);
+		}
+
+		assertEquals("Http sender did not receive the expected response code.", STATUS_CODE, connection.getResponseCode());
+		assertEquals("Http sender did not receive the expected response description.", STATUS_DESCRIPTION, connection.getResponseMessage());
+		byte[] received = readBytesFromStream(connection.getInputStream());
+		assertTrue("Http sender did not receive the expected response body.", Arrays.equals(msgExpected, received));
+	}
+
+	// The sender may get the response before the listener is done closing it
+	private static void awaitNoRequestsInFlight(HybridConnectionListener listener) throws InterruptedException {
+		for (int i = 0; i < 100 && listener.getStatistics().getRequestsInFlight() > 0; i++) {
+			Thread.sleep(50);
+		}
+	}
+
+	private int postForStatus(String path) {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) relay.getHttpUri(path).resolve(path + "/path").toURL().openConnection();
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(SMALL_BYTES);
+			}
+			return connection.getResponseCode();
+		} catch (IOException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	private static byte[] readBytesFromStream(InputStream inputStream) throws IOException {
+		if (inputStream == null) {
+			return new byte[0];
+		}
+
+		ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = inputStream.read(buffer)) != -1) {
+			byteStream.write(buffer, 0, read);
+		}
+		return byteStream.toByteArray();
+	}
+
+	private static byte[] getTestBytes(int size) {
+		byte[] bytes = new byte[size];
+		for (int i = 0; i < size; i++) {
+			bytes[i] = (byte) ('A' + (i % 26));
+		}
+		return bytes;
+	}
+}
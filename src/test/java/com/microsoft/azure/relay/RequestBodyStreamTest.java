@@ -0,0 +1,62 @@
+package com.microsoft.azure.relay;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+public class RequestBodyStreamTest {
+	private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+	@Test
+	public void readsFragmentsAsTheyArriveTest() throws IOException {
+		ClientWebSocket webSocket = new ClientWebSocket(TrackingContext.create(), HybridConnectionListener.EXECUTOR);
+		RequestBodyStream stream = new RequestBodyStream(webSocket, TIMEOUT);
+		webSocket.onFragmentReceived(new MessageFragment(new byte[] { 1, 2, 3 }, false));
+
+		byte[] buffer = new byte[10];
+		assertEquals("The available part of the body should be readable before the rest arrives.", 3, stream.read(buffer, 0, buffer.length));
+		CompletableFuture<ByteBuffer> next = stream.readAsync();
+		assertFalse("The next chunk has not arrived yet.", next.isDone());
+
+		webSocket.onFragmentReceived(new MessageFragment(new byte[] { 4, 5 }, true));
+		assertEquals(ByteBuffer.wrap(new byte[] { 4, 5 }), next.join());
+		assertEquals("The body ended with the last fragment.", -1, stream.read());
+		assertNull(stream.readAsync().join());
+	}
+
+	@Test
+	public void bodyReceivedInFullTest() throws IOException {
+		RequestBodyStream stream = new RequestBodyStream(ByteBuffer.wrap(new byte[] { 7, 8 }));
+		assertEquals(2, stream.available());
+		assertEquals(7, stream.read());
+		assertEquals(8, stream.read());
+		assertEquals(-1, stream.read());
+	}
+
+	@Test
+	public void bodyReceivedInFragmentsTest() throws IOException {
+		ByteBuffer first = ByteBuffer.wrap(new byte[] { 1, 2 });
+		RequestBodyStream stream = new RequestBodyStream(first, ByteBuffer.wrap(new byte[] { 3 }));
+		assertSame("The fragments should be handed out as received rather than joined.", first, stream.readAsync().join());
+
+		byte[] buffer = new byte[10];
+		assertEquals(1, stream.read(buffer, 0, buffer.length));
+		assertEquals(3, buffer[0]);
+		assertNull(stream.readAsync().join());
+	}
+
+	@Test (expected = IOException.class)
+	public void readTimesOutWhenTheBodyStallsTest() throws IOException {
+		ClientWebSocket webSocket = new ClientWebSocket(TrackingContext.create(), HybridConnectionListener.EXECUTOR);
+		RequestBodyStream stream = new RequestBodyStream(webSocket, Duration.ofMillis(50));
+		webSocket.onFragmentReceived(new MessageFragment(new byte[] { 1 }, false));
+
+		assertEquals(1, stream.read());
+		stream.read();
+	}
+}
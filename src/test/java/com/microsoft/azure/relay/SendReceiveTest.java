@@ -28,8 +28,6 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
-import com.microsoft.azure.relay.HybridHttpConnection.ResponseStream;
-
 public class SendReceiveTest {
 	private static final int EMPTY_BYTES_SIZE = 0;
 	private static final int SMALL_BYTES_SIZE = 256;
@@ -340,7 +338,7 @@ public class SendReceiveTest {
 				
 				// Pause for testing the flush timeout
 				if (hasPause && i < messages.length - 1) {
-					Thread.sleep(ResponseStream.WRITE_BUFFER_FLUSH_TIMEOUT_MILLIS);
+					Thread.sleep(HybridConnectionListener.DEFAULT_RESPONSE_FLUSH_TIMEOUT.toMillis());
 				}
 			}
 		} catch (Exception e) {
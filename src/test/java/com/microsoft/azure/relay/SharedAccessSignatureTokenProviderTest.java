@@ -0,0 +1,76 @@
+package com.microsoft.azure.relay;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+import com.microsoft.azure.relay.SharedAccessSignatureTokenProvider.SharedAccessSignatureBuilder;
+import com.microsoft.azure.relay.SharedAccessSignatureTokenProvider.SharedAccessSignatureToken;
+
+public class SharedAccessSignatureTokenProviderTest {
+	private static final String KEY_NAME = "key name/1";
+	private static final String KEY = "0123456789abcdef";
+	private static final String AUDIENCE = "http://contoso.servicebus.windows.net/hc1?a=b";
+
+	@Test
+	public void signatureMatchesHmacTest() throws Exception {
+		SharedAccessSignatureBuilder builder = new SharedAccessSignatureBuilder(KEY_NAME, KEY.getBytes(StringUtil.UTF8));
+		// Sign repeatedly to make sure the reused Mac starts from a clean state every time
+		for (int i = 0; i < 3; i++) {
+			String token = builder.buildSignature(AUDIENCE, Duration.ofMinutes(60));
+			Map<String, String> fields = SharedAccessSignatureToken.extractFieldValues(token);
+
+			Mac mac = Mac.getInstance(SharedAccessSignatureBuilder.HMAC_ALGORITHM);
+			mac.init(new SecretKeySpec(KEY.getBytes(StringUtil.UTF8), SharedAccessSignatureBuilder.HMAC_ALGORITHM));
+			String expected = Base64.getEncoder().encodeToString(
+				mac.doFinal((fields.get(SharedAccessSignatureToken.SIGNED_RESOURCE) + "\n" 
+					+ fields.get(SharedAccessSignatureToken.SIGNED_EXPIRY)).getBytes(StringUtil.UTF8)));
+
+			assertEquals("The signature should be the HMAC of the encoded audience and expiry.", 
+				expected, fields.get(SharedAccessSignatureToken.SIGNATURE));
+			assertEquals("The key name should round trip through encoding.", KEY_NAME, fields.get(SharedAccessSignatureToken.SIGNATURE_KEYNAME));
+		}
+	}
+
+	@Test
+	public void concurrentSignaturesPoolBoundedTest() throws Exception {
+		SharedAccessSignatureBuilder builder = new SharedAccessSignatureBuilder(KEY_NAME, KEY.getBytes(StringUtil.UTF8));
+		String expected = builder.sign(AUDIENCE);
+		ExecutorService executor = Executors.newFixedThreadPool(SharedAccessSignatureBuilder.MAX_POOLED_MACS * 2);
+		try {
+			List<Future<String>> signatures = new ArrayList<Future<String>>();
+			for (int i = 0; i < 1000; i++) {
+				signatures.add(executor.submit(() -> builder.sign(AUDIENCE)));
+			}
+			for (Future<String> signature : signatures) {
+				assertEquals("Every pooled Mac should sign with the key.", expected, signature.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue("The pool should not keep more than its bound of Macs.", 
+			builder.getPooledMacCount() <= SharedAccessSignatureBuilder.MAX_POOLED_MACS);
+	}
+
+	@Test
+	public void tokenExpiryTest() {
+		SharedAccessSignatureTokenProvider tokenProvider = new SharedAccessSignatureTokenProvider(KEY_NAME, KEY);
+		long before = System.currentTimeMillis() / 1000;
+		SecurityToken token = tokenProvider.getTokenAsync(AUDIENCE, Duration.ofMinutes(10)).join();
+		long expiresAt = token.getExpiresAtUtc().getEpochSecond();
+		assertTrue("The token should expire after the requested duration.", 
+			expiresAt >= before + 600 && expiresAt <= before + 601);
+	}
+}
@@ -0,0 +1,40 @@
+package com.microsoft.azure.relay;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+
+import javax.websocket.WebSocketContainer;
+
+import org.junit.Test;
+
+public class SharedWebSocketContainerTest {
+
+	@Test
+	public void acquireReturnsSameContainerTest() {
+		int initialRefCount = SharedWebSocketContainer.getRefCount();
+		WebSocketContainer container1 = SharedWebSocketContainer.acquire();
+		WebSocketContainer container2 = SharedWebSocketContainer.acquire();
+		try {
+			assertSame("All websockets should share the same container.", container1, container2);
+			assertEquals("Each acquire should add a reference.", initialRefCount + 2, SharedWebSocketContainer.getRefCount());
+		} finally {
+			SharedWebSocketContainer.release();
+			SharedWebSocketContainer.release();
+		}
+		assertEquals("Each release should remove a reference.", initialRefCount, SharedWebSocketContainer.getRefCount());
+	}
+
+	@Test
+	public void disposeReleasesOnceTest() {
+		int initialRefCount = SharedWebSocketContainer.getRefCount();
+		ClientWebSocket webSocket = new ClientWebSocket(TrackingContext.create(), HybridConnectionListener.EXECUTOR);
+		webSocket.dispose();
+		assertEquals("Disposing a websocket which never connected should not release anything.", initialRefCount, SharedWebSocketContainer.getRefCount());
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void negativeIdleLingerTest() {
+		SharedWebSocketContainer.setIdleLinger(Duration.ofSeconds(-1));
+	}
+}
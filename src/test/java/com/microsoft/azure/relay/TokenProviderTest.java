@@ -0,0 +1,115 @@
+package com.microsoft.azure.relay;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TokenProviderTest {
+	private static final String AUDIENCE = "http://contoso.servicebus.windows.net/hc1";
+	private static final Duration VALID_FOR = Duration.ofMinutes(60);
+
+	@Test
+	public void cachedTokenReusedTest() {
+		CountingTokenProvider tokenProvider = new CountingTokenProvider();
+		SecurityToken token1 = tokenProvider.getTokenAsync(AUDIENCE, VALID_FOR).join();
+		SecurityToken token2 = tokenProvider.getTokenAsync(AUDIENCE, VALID_FOR).join();
+		assertSame("The cached token should be handed out again.", token1, token2);
+		assertEquals("Only one token should be generated.", 1, tokenProvider.generatedCount.get());
+	}
+
+	@Test
+	public void audiencesCachedSeparatelyTest() {
+		CountingTokenProvider tokenProvider = new CountingTokenProvider();
+		SecurityToken token1 = tokenProvider.getTokenAsync(AUDIENCE, VALID_FOR).join();
+		SecurityToken token2 = tokenProvider.getTokenAsync(AUDIENCE + "2", VALID_FOR).join();
+		assertNotSame("Each audience should get its own token.", token1, token2);
+		assertEquals("One token per audience should be generated.", 2, tokenProvider.generatedCount.get());
+	}
+
+	@Test
+	public void validForCachedSeparatelyTest() {
+		CountingTokenProvider tokenProvider = new CountingTokenProvider();
+		tokenProvider.setTokenRefreshMargin(Duration.ofMinutes(5));
+		SecurityToken shortToken = tokenProvider.getTokenAsync(AUDIENCE, Duration.ofMinutes(10)).join();
+		SecurityToken longToken = tokenProvider.getTokenAsync(AUDIENCE, VALID_FOR).join();
+		assertNotSame("A token asked for a longer validFor should not be served by a shorter one.", shortToken, longToken);
+		assertTrue("The token should be valid for as long as it was asked for.", 
+			longToken.getExpiresAtUtc().isAfter(shortToken.getExpiresAtUtc().plus(Duration.ofMinutes(45))));
+		assertSame("Each validFor should keep its own cached token.", shortToken, 
+			tokenProvider.getTokenAsync(AUDIENCE, Duration.ofMinutes(10)).join());
+		assertEquals("One token per validFor should be generated.", 2, tokenProvider.generatedCount.get());
+	}
+
+	@Test
+	public void tokenWithinRefreshMarginRenewedTest() {
+		CountingTokenProvider tokenProvider = new CountingTokenProvider();
+		tokenProvider.setTokenRefreshMargin(VALID_FOR.plusMinutes(1));
+		tokenProvider.getTokenAsync(AUDIENCE, VALID_FOR).join();
+		tokenProvider.getTokenAsync(AUDIENCE, VALID_FOR).join();
+		assertEquals("A token within the refresh margin should not be handed out.", 2, tokenProvider.generatedCount.get());
+	}
+
+	@Test
+	public void concurrentRequestsShareRefreshTest() {
+		CountingTokenProvider tokenProvider = new CountingTokenProvider();
+		tokenProvider.pendingToken = new CompletableFuture<SecurityToken>();
+		CompletableFuture<SecurityToken> task1 = tokenProvider.getTokenAsync(AUDIENCE, VALID_FOR);
+		CompletableFuture<SecurityToken> task2 = tokenProvider.getTokenAsync(AUDIENCE, VALID_FOR);
+		assertFalse("The token should not be generated yet.", task1.isDone() || task2.isDone());
+
+		SecurityToken token = new SharedAccessSignatureTokenProvider("keyName", "key").getTokenAsync(AUDIENCE, VALID_FOR).join();
+		tokenProvider.pendingToken.complete(token);
+		assertSame("Both requests should get the same token.", task1.join(), task2.join());
+		assertEquals("Only one token should be generated.", 1, tokenProvider.generatedCount.get());
+	}
+
+	@Test
+	public void failedRefreshNotCachedTest() {
+		CountingTokenProvider tokenProvider = new CountingTokenProvider();
+		tokenProvider.pendingToken = CompletableFutureUtil.fromException(new RuntimeException("token service unavailable"));
+		assertTrue("The failure should be surfaced.", 
+			tokenProvider.getTokenAsync(AUDIENCE, VALID_FOR).handle((token, ex) -> ex != null).join());
+
+		tokenProvider.pendingToken = null;
+		assertNotNull("The next request should generate a new token.", tokenProvider.getTokenAsync(AUDIENCE, VALID_FOR).join());
+		assertEquals("The failed generation should not be cached.", 2, tokenProvider.generatedCount.get());
+	}
+
+	@Test
+	public void staleTokensEvictedTest() {
+		CountingTokenProvider tokenProvider = new CountingTokenProvider();
+		tokenProvider.setTokenRefreshMargin(VALID_FOR.plusMinutes(1));
+		for (int i = 0; i < 10; i++) {
+			tokenProvider.getTokenAsync(AUDIENCE + i, VALID_FOR).join();
+		}
+		assertEquals("Tokens which would not be handed out anymore should be evicted.", 1, tokenProvider.getCachedTokenCount());
+
+		tokenProvider.setTokenRefreshMargin(Duration.ZERO);
+		tokenProvider.getTokenAsync(AUDIENCE, VALID_FOR).join();
+		assertEquals("Fresh tokens should stay cached.", 2, tokenProvider.getCachedTokenCount());
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void negativeRefreshMarginTest() {
+		new CountingTokenProvider().setTokenRefreshMargin(Duration.ofSeconds(-1));
+	}
+
+	private static class CountingTokenProvider extends SharedAccessSignatureTokenProvider {
+		final AtomicInteger generatedCount = new AtomicInteger();
+		CompletableFuture<SecurityToken> pendingToken;
+
+		CountingTokenProvider() {
+			super("keyName", "key");
+		}
+
+		@Override
+		protected CompletableFuture<SecurityToken> onGetTokenAsync(String resource, Duration validFor) {
+			this.generatedCount.incrementAndGet();
+			return (this.pendingToken != null) ? this.pendingToken : super.onGetTokenAsync(resource, validFor);
+		}
+	}
+}
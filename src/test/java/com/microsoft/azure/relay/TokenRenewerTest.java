@@ -0,0 +1,36 @@
+package com.microsoft.azure.relay;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.Test;
+
+public class TokenRenewerTest {
+	private static final Duration VALID_FOR = Duration.ofMinutes(60);
+
+	@Test
+	public void renewalScheduledBeforeExpiryTest() throws Exception {
+		TokenProvider tokenProvider = TokenProvider.createSharedAccessSignatureTokenProvider("keyName", "key");
+		HybridConnectionListener listener = new HybridConnectionListener(new URI("sb://contoso.servicebus.windows.net/hc1"), tokenProvider);
+		TokenRenewer tokenRenewer = new TokenRenewer(listener, listener.getAddress().toString(), VALID_FOR);
+		HybridConnectionListenerStatistics statistics = listener.getStatistics();
+
+		try {
+			SecurityToken token = tokenRenewer.getTokenAsync().join();
+			assertEquals("The token expiry should be tracked.", token.getExpiresAtUtc(), statistics.getTokenExpiresAt());
+
+			Instant nextRenewal = statistics.getNextTokenRenewal();
+			assertNotNull("A renewal should be scheduled.", nextRenewal);
+			assertFalse("The renewal should not be after the token expires.", nextRenewal.isAfter(token.getExpiresAtUtc().plusSeconds(1)));
+			assertTrue("The renewal should not be brought forward by more than the jitter.", 
+				nextRenewal.isAfter(token.getExpiresAtUtc().minus(TokenRenewer.MAX_RENEW_JITTER).minusSeconds(1)));
+			assertEquals("Acquiring the first token is not a renewal.", 0, statistics.getTokenRenewals());
+		} finally {
+			tokenRenewer.close();
+		}
+		assertNull("Closing should cancel the scheduled renewal.", statistics.getNextTokenRenewal());
+	}
+}